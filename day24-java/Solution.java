@@ -1,32 +1,155 @@
 import java.util.*;
-import java.io.FileInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+import java.util.function.ToLongFunction;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import javax.tools.*;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 public class Solution {
     // ****************************************************************************************************************
     // Internal data and constructor
 
-    private ArrayList<Instruction> instructions;        // list of ALU instructions
-    private ArrayList<Result> all_results;              // all the values after running the interpreter
+    private ArrayList<Instruction> program;             // list of ALU instructions, as read from the input
+    private ArrayList<Instruction> instructions;        // list of ALU instructions after optimizing
+    private int input_count;                            // number of input digits read by the program
+    private ConcurrentLinkedQueue<Result> all_results;  // all the values after running the interpreter
+    private ConcurrentHashMap<Expression, Expression> interned; // hash-consing table: every distinct expression exists only once
+    private AtomicInteger next_expression_id;           // ID of the next interned expression
+    private LongAdder limits_computed;                  // number of expressions with computed limits
+    private LongAdder limits_reused;                    // number of limit analyses saved by the limits cache
+    private LongAdder congruence_prunes;                // number of intersections disproved only by the congruences
+    private boolean parallel_interpret;                 // run the interpreter's execution paths on a pool of threads
+    private int split_depth;                            // the paths forked at a lower depth run as separate tasks
+    private LongAdder forks;                            // number of execution paths forked by the interpreter
+    private LongAdder forks_avoided;                    // number of comparisons with a single possible result
+    private LongAdder paths;                            // number of execution paths that reached the end of the program
+    private LongAdder paths_infeasible;                 // number of execution paths stopped by a contradiction
+    private LongAdder paths_bad_z;                      // number of finished paths where "z" can't be 0
+    private LongAdder paths_bad_condition;              // number of finished paths with a condition that can't be true
+    private LongAdder expressions_requested;            // number of expressions built (before interning)
+    private LongAdder candidates;                       // number of digit combinations generated by the search
+    private LongAdder candidates_bad_condition;         // number of combinations rejected by a condition
+    private LongAdder candidates_bad_z;                 // number of combinations rejected because "z" is not 0
+    private LongAdder incremental_nodes;                // number of nodes evaluated by the incremental evaluator
+    private String program_name;                        // the file name of the program (for the JFR events)
+    private LinkedHashMap<String, Long> phase_nanos;    // time spent in each phase, in the order they ran
+    private boolean print_stats;                        // print statistics after solving
+    private boolean verify;                             // check the answers with the concrete ALU
+    private boolean print_count;                        // print the number of accepted numbers
+    private String list_order;                          // print the accepted numbers in this order ("asc" or "desc")
+    private long list_limit;                            // the maximum number of accepted numbers to print
+    private Engine engine;                              // how the program is solved
+    private String engine_info;                         // information about the engine that solved the program
+    private String fallback_reason;                     // why the selected engine fell back to the symbolic one
+    private long dp_memory;                             // memory budget of the DP engine (bytes)
+    private EvalMode eval_mode;                         // how the final conditions are evaluated when searching
+    private LongAdder eval_mismatches;                  // number of different results when comparing evaluators
+    private SearchMode search_mode;                     // how the input digits are searched
+    private int threads;                                // number of threads for the parallel search
+    private long ordered_evaluations;                   // number of expressions evaluated by the ordered search
+    private NodePool node_pool;                         // the node pool evaluator (if used)
+    private String lanes_info;                          // how the LANES evaluator runs (null if not used)
+    private DigitChecker search_checker;                // the checker used by the search of the symbolic engine
+    private int[] used_digits;                          // the input digits that the symbolic engine iterates
+    private String cache_dir;                           // directory of the results cache (null if not used)
+    private String cache_info;                          // what happened with the cache entry of the program
+    private Expression[] digit_symbols;                 // the symbol of each input digit ("d<n>")
+    private EnumSet<Pass> passes;                       // the enabled optimization passes
+    private Optimizer optimizer;                        // the optimizer of the program (and its statistics)
 
-    // Map between an instruction string and its Operation value
-    private static HashMap<String, Operation> str_to_op = new HashMap<>();
-    static {
-        str_to_op.put("inp", Operation.INP);
-        str_to_op.put("add", Operation.ADD);
-        str_to_op.put("sub", Operation.SUB);
-        str_to_op.put("mul", Operation.MUL);
-        str_to_op.put("div", Operation.DIV);
-        str_to_op.put("mod", Operation.MOD);
-        str_to_op.put("eql", Operation.EQL);
-        str_to_op.put("neq", Operation.NEQ);
-    }
+    // Instruction string of each Operation (indexed by ordinal)
+    private static final String[] OP_NAMES = {"inp", "add", "sub", "mul", "div", "mod", "eql", "neq"};
+
+    // Names of the ALU registers, in the order of their slots in a register file
+    private static final String REGISTERS = "wxyz";
 
     public Solution() {
+        program = new ArrayList<>();
         instructions = new ArrayList<>();
-        all_results = new ArrayList<>();
+        input_count = 0;
+        all_results = new ConcurrentLinkedQueue<>();
+        interned = new ConcurrentHashMap<>();
+        next_expression_id = new AtomicInteger();
+        limits_computed = new LongAdder();
+        limits_reused = new LongAdder();
+        congruence_prunes = new LongAdder();
+        parallel_interpret = false;
+        split_depth = 10;
+        forks = new LongAdder();
+        forks_avoided = new LongAdder();
+        paths = new LongAdder();
+        paths_infeasible = new LongAdder();
+        paths_bad_z = new LongAdder();
+        paths_bad_condition = new LongAdder();
+        expressions_requested = new LongAdder();
+        candidates = new LongAdder();
+        candidates_bad_condition = new LongAdder();
+        candidates_bad_z = new LongAdder();
+        incremental_nodes = new LongAdder();
+        program_name = "";
+        phase_nanos = new LinkedHashMap<>();
+        print_stats = false;
+        verify = false;
+        print_count = false;
+        list_order = null;
+        list_limit = Long.MAX_VALUE;
+        engine = Engine.SYMBOLIC;
+        engine_info = "symbolic";
+        fallback_reason = null;
+        dp_memory = Runtime.getRuntime().maxMemory() / 2;
+        eval_mode = EvalMode.TREE;
+        eval_mismatches = new LongAdder();
+        search_mode = SearchMode.ENUMERATE;
+        threads = Runtime.getRuntime().availableProcessors();
+        ordered_evaluations = 0;
+        passes = EnumSet.allOf(Pass.class);
     }
 
     // ****************************************************************************************************************
@@ -44,19 +167,213 @@ public class Solution {
     }
 
     // ****************************************************************************************************************
-    // A (min, max) pair for storing the limits of an expression and for computing limit intersections.
+    // The answers to the puzzle: the maximum and minimum accepted model numbers as strings of digits (null if the
+    // program doesn't accept any model number)
+
+    class Answer {
+        public String max, min;
+
+        public Answer(String max, String min) {
+            this.max = max;
+            this.min = min;
+        }
+    }
+
+    // A program that none of the engines can solve (the message says why)
+    static class SolveException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public SolveException(String message) {
+            super(message);
+        }
+    }
+
+    // ****************************************************************************************************************
+    // An immutable list of path conditions (the most recent condition is the head). Forking an execution path adds a
+    // new head to the same tail, so all the paths share their common conditions.
+
+    class CondList {
+        public final Expression head;                   // most recent condition
+        public final CondList tail;                     // previous conditions (null if none)
+        public final int size;                          // number of conditions in this list
+
+        public CondList(Expression head, CondList tail) {
+            this.head = head;
+            this.tail = tail;
+            this.size = tail == null ? 1 : tail.size + 1;
+        }
+    }
+
+    // Return the conditions in "l" in the order in which they were added
+    static ArrayList<Expression> cond_list_to_array(CondList l) {
+        ArrayList<Expression> res = new ArrayList<>(l == null ? 0 : l.size);
+        for (CondList c = l; c != null; c = c.tail) {
+            res.add(c.head);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    // ****************************************************************************************************************
+    // The limits of an expression: the interval [min, max] of its values together with a congruence (all the values
+    // are equal to "residue" modulo "modulus"; a modulus of 1 means that nothing else is known and a modulus of 0 that
+    // the value is always "residue"). The two parts refine each other: the ends of the interval are moved to the
+    // closest values with the right residue, and an interval with a single value is a constant.
 
     class Limits {
-        public long min, max;
+        public final long min, max;
+        public final long modulus, residue;
 
         public Limits(long min, long max) {
+            this(min, max, 1, 0);
+        }
+
+        public Limits(long min, long max, long modulus, long residue) {
+            if (modulus == 0 && residue >= min && residue <= max) { // a constant
+                min = max = residue;
+            } else if (modulus > 1) {
+                residue = Math.floorMod(residue, modulus);
+                long lo = align_up(min, modulus, residue), hi = align_down(max, modulus, residue);
+                if (lo <= hi) {
+                    min = lo;
+                    max = hi;
+                } else { // only possible if the bounds were saturated, don't trust the congruence
+                    modulus = 1;
+                }
+            }
+            if (min == max) {
+                modulus = 0;
+                residue = min;
+            } else if (modulus <= 1) {
+                modulus = 1;
+                residue = 0;
+            }
             this.min = min;
             this.max = max;
+            this.modulus = modulus;
+            this.residue = residue;
+        }
+
+        // Return true if "v" is one of the values of these limits
+        public boolean contains(long v) {
+            return v >= min && v <= max && (modulus == 0 ? v == residue : Math.floorMod(v, modulus) == residue);
         }
 
+        // Return true if the two limits have at least one common value
         public boolean intersects(Limits other) {
-            return this.min < other.max || this.max < other.min;
+            long lo = Math.max(min, other.min), hi = Math.min(max, other.max);
+            if (lo > hi) {
+                return false;
+            }
+            boolean res;
+            if (modulus == 0 || other.modulus == 0) {
+                res = modulus == 0 ? other.contains(residue) : contains(other.residue);
+            } else if (modulus == 1 || other.modulus == 1) {
+                Limits l = modulus == 1 ? other : this;
+                res = align_up(lo, l.modulus, l.residue) <= hi;
+            } else {
+                // Chinese remainder theorem: the common values (if any) have a single residue modulo lcm(m1, m2)
+                BigInteger m1 = BigInteger.valueOf(modulus), m2 = BigInteger.valueOf(other.modulus);
+                BigInteger g = m1.gcd(m2);
+                BigInteger diff = BigInteger.valueOf(other.residue).subtract(BigInteger.valueOf(residue));
+                if (diff.mod(g).signum() != 0) {
+                    res = false;
+                } else {
+                    BigInteger m2_g = m2.divide(g);
+                    BigInteger lcm = m1.multiply(m2_g);
+                    BigInteger t = m2_g.equals(BigInteger.ONE) ? BigInteger.ZERO : diff.divide(g).multiply(m1.divide(g).modInverse(m2_g)).mod(m2_g);
+                    BigInteger r = BigInteger.valueOf(residue).add(m1.multiply(t)).mod(lcm);
+                    res = lcm.bitLength() >= 63 || align_up(lo, lcm.longValue(), r.longValue()) <= hi;
+                }
+            }
+            if (!res) { // the intervals overlap, but the values never have the same residue
+                congruence_prunes.increment();
+            }
+            return res;
+        }
+    }
+
+    // Return the smallest value >= v that is equal to r modulo m (v if that overflows)
+    static long align_up(long v, long m, long r) {
+        long res = v + Math.floorMod(r - Math.floorMod(v, m), m);
+        return res < v ? v : res;
+    }
+
+    // Return the largest value <= v that is equal to r modulo m (v if that overflows)
+    static long align_down(long v, long m, long r) {
+        long res = v - Math.floorMod(Math.floorMod(v, m) - r, m);
+        return res > v ? v : res;
+    }
+
+    // Saturating arithmetic for the ends of the intervals: a result that doesn't fit is replaced by the closest long,
+    // which is still a valid (if useless) bound
+    static long sat_add(long a, long b) {
+        long res = a + b;
+        if (((a ^ res) & (b ^ res)) < 0) { // overflow
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return res;
+    }
+
+    static long sat_mul(long a, long b) {
+        long hi = Math.multiplyHigh(a, b), lo = a * b;
+        if ((hi == 0 && lo >= 0) || (hi == -1 && lo < 0)) {
+            return lo;
         }
+        return (a < 0) == (b < 0) ? Long.MAX_VALUE : Long.MIN_VALUE;
+    }
+
+    static long sat_neg(long a) {
+        return a == Long.MIN_VALUE ? Long.MAX_VALUE : -a;
+    }
+
+    static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Magic number for the division by a constant d >= 2 (Hacker's Delight, 10-1): for any long n, n / d is
+    // (multiplyHigh(m, n) + (m < 0 ? n : 0)) >> s, plus 1 if n < 0. This is what the JIT does when dividing by a
+    // literal, but the ALU interpreter only knows its divisors at run time. Returns {m, s}.
+    static long[] div_magic(long d) {
+        long two63 = Long.MIN_VALUE; // 2^63, as an unsigned number
+        long anc = two63 - 1 - Long.remainderUnsigned(two63, d);
+        long q1 = Long.divideUnsigned(two63, anc), r1 = two63 - q1 * anc;
+        long q2 = Long.divideUnsigned(two63, d), r2 = two63 - q2 * d;
+        long delta;
+        int p = 63;
+        do {
+            p ++;
+            q1 <<= 1;
+            r1 <<= 1;
+            if (Long.compareUnsigned(r1, anc) >= 0) {
+                q1 ++;
+                r1 -= anc;
+            }
+            q2 <<= 1;
+            r2 <<= 1;
+            if (Long.compareUnsigned(r2, d) >= 0) {
+                q2 ++;
+                r2 -= d;
+            }
+            delta = d - r2;
+        } while (Long.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+        return new long[] {q2 + 1, p - 64};
+    }
+
+    // n / d, with {m, s} = div_magic(d)
+    static long magic_div(long n, long m, int s) {
+        long q = Math.multiplyHigh(m, n);
+        if (m < 0) {
+            q += n;
+        }
+        return (q >> s) + (n >>> 63);
     }
 
     // ****************************************************************************************************************
@@ -117,6 +434,52 @@ public class Solution {
         }
     }
 
+    // ****************************************************************************************************************
+    // How the final conditions are checked when searching for the input digits:
+    //   - TREE: walk the expression trees (the default)
+    //   - COMPILED: compile the conditions to a Java class and run that (fall back to TREE if that's not possible).
+    //     Starting the compiler takes about half a second, more than the whole search of the puzzle inputs, so this
+    //     pays off only for larger searches
+    //   - POOL: evaluate a compact copy of the expressions stored in primitive arrays (see NodePool)
+    //   - INCREMENTAL: same as POOL, but only the nodes that depend on the digits changed by the generator are
+    //     evaluated again for each input (see IncrementalPool)
+    //   - LANES: same as POOL, but on blocks of candidates at a time, using SIMD instructions (see LaneChecker)
+    //   - COMPARE: run TREE, COMPILED and POOL and count the differences between them
+
+    enum EvalMode {
+        TREE, COMPILED, POOL, INCREMENTAL, LANES, COMPARE
+    }
+
+    // ****************************************************************************************************************
+    // How the program is solved:
+    //   - SYMBOLIC: the general engine (symbolic interpreter, then a search of the digits used by the final result)
+    //   - BLOCKS: recognize the usual structure of the puzzle programs (blocks that push and pop values on a stack
+    //     kept in "z") and solve it directly, falling back to SYMBOLIC for other programs
+    //   - DP: run the program one input block at a time, keeping the set of reachable "z" values (dynamic programming),
+    //     falling back to SYMBOLIC for programs that keep other registers than "z" between blocks
+
+    enum Engine {
+        SYMBOLIC, BLOCKS, DP
+    }
+
+    // ****************************************************************************************************************
+    // How the input digits used by the final result are searched:
+    //   - ENUMERATE: generate all of them on the current thread
+    //   - PARALLEL: split the space of all the inputs in ranges and search the ranges on a pool of threads
+    //   - ORDERED: try the digits from the most significant to the least significant one, in descending order for the
+    //     maximum and in ascending order for the minimum, and stop at the first accepted number
+
+    enum SearchMode {
+        ENUMERATE, PARALLEL, ORDERED
+    }
+
+    // ****************************************************************************************************************
+    // Optimization passes that run on the instructions before solving (see Optimizer below)
+
+    enum Pass {
+        ALG, FOLD, COPY, NOP, DSE
+    }
+
     // ****************************************************************************************************************
     // Possible types for an expression (see below)
 
@@ -130,27 +493,58 @@ public class Solution {
     //   - as a symbol (w, x, y, z, d0, d1...)
     //   - as an tree (binary tree for computing the valeus of expressions) with "op" holding an Operation and "left" and "right"
     //     holding the operands
+    // Expressions are hash-consed: they must be created with the make_xxx functions (see below), which guarantee that
+    // structurally identical expressions are represented by the same instance. This means that two expressions are
+    // equal if and only if they are the same object, so the children of a TREE can be compared by reference.
+    // The depth of the expressions grows with the number of blocks in the program, so they are walked with explicit
+    // stacks (see fold() and post_order()) instead of recursion, which would be limited by the size of the thread stack.
+
+    // A bottom-up computation on the nodes of an expression (see Expression.fold)
+    interface Fold<T> {
+        // Return the value of a node that is not walked into (a number, a symbol or a node accepted by is_leaf)
+        T leaf(Expression e);
+
+        // Return the value of a TREE node at the given depth (0 for the root) from the values of its operands
+        T node(Expression e, T left, T right, int depth);
+
+        // Return true if the node is not walked into
+        default boolean is_leaf(Expression e) {
+            return e.kind != ExpressionKind.TREE;
+        }
+    }
 
     class Expression {
+        static final int MAX_RECURSION_HEIGHT = 256; // expressions up to this height can be walked recursively
+
         public ExpressionKind kind;     // the kind of expression
         public String v;                // the value of the expression as a string
         public long num_v;              // the integer value of this expression, if applicable
         public Operation op;            // operation for a TREE kind
         public Expression left, right;  // operand for a TREE kind
+        public int id;                  // unique ID of this expression (assigned when interned)
+        public int digit;               // index of the input digit for a "d<index>" symbol (-1 otherwise)
+        public int height;              // number of TREE nodes on the longest path from this node to a leaf
+        private int hash;               // precomputed structural hash
+        private Limits limits;          // cached limits of this expression (computed on demand)
 
         // Constructor for a simple value (number or symbol)
         public Expression(String v) {
             this.v = v;
-            try {
+            digit = -1;
+            if (is_number(v)) {
                 num_v = Long.parseLong(v);
                 kind = ExpressionKind.NUMBER;
-            } catch (Exception e) {
+            } else {
                 num_v = 0;
                 kind = ExpressionKind.SYMBOL;
+                if (v.charAt(0) == 'd' && is_number(v.substring(1))) {
+                    digit = Integer.parseInt(v.substring(1));
+                }
             }
             op = Operation.INP;
             left = null;
             right = null;
+            hash = kind == ExpressionKind.NUMBER ? Long.hashCode(num_v) : v.hashCode();
         }
 
         // Constructor for an integer value
@@ -158,36 +552,130 @@ public class Solution {
             num_v = v;
             this.v = Long.toString(v);
             kind = ExpressionKind.NUMBER;
+            digit = -1;
             op = Operation.INP;
             left = null;
             right = null;
+            hash = Long.hashCode(num_v);
         }
 
         // Constructor for a TREE value
         public Expression(Operation op, Expression left, Expression right) {
             kind = ExpressionKind.TREE;
+            digit = -1;
             this.op = op;
             this.left = left;
             this.right = right;
+            height = 1 + Math.max(left.height, right.height);
             v = "";
             num_v = 0;
+            hash = (op.ordinal() * 31 + left.id) * 31 + right.id;
+        }
+
+        // Structural equality. The operands of a TREE are already interned, so they are compared by reference.
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Expression)) {
+                return false;
+            }
+            Expression other = (Expression)o;
+            if (kind != other.kind || hash != other.hash) {
+                return false;
+            }
+            switch (kind) {
+                case NUMBER:
+                    return num_v == other.num_v;
+                case SYMBOL:
+                    return v.equals(other.v);
+                default:
+                    return op == other.op && left == other.left && right == other.right;
+            }
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        // Compute a value for this expression from the values of its nodes, operands first. The nodes are walked
+        // with an explicit stack that holds the TREE nodes from the root to the current node (and the values of the
+        // left operands that are already known), so the depth of the expression is only limited by the heap. A node
+        // that is shared by several subtrees is walked each time, like a recursive walk would do.
+        @SuppressWarnings("unchecked")
+        public <T> T fold(Fold<T> f) {
+            Expression[] path = new Expression[height]; // the TREE nodes from the root to the current node
+            boolean[] on_right = new boolean[height];   // true for the nodes whose right operand is being walked
+            Object[] vals = new Object[height + 1];     // the values of the operands computed so far
+            int sp = 0, vp = 0;
+            Expression n = this;
+            while (true) {
+                // Go down the left operands to a leaf
+                while (!f.is_leaf(n)) {
+                    path[sp] = n;
+                    on_right[sp ++] = false;
+                    n = n.left;
+                }
+                vals[vp ++] = f.leaf(n);
+                // Go up while the current node is a right operand, combining the values of the operands
+                while (sp > 0 && on_right[sp - 1]) {
+                    sp --;
+                    T r = (T)vals[-- vp];
+                    T l = (T)vals[-- vp];
+                    vals[vp ++] = f.node(path[sp], l, r, sp);
+                    path[sp] = null;
+                }
+                if (sp == 0) {
+                    return (T)vals[0];
+                }
+                on_right[sp - 1] = true;
+                n = path[sp - 1].right;
+            }
         }
 
-        // Recursive to_string method for TREE expressions
-        private String to_string(int level) {
-            if (kind == ExpressionKind.NUMBER || kind == ExpressionKind.SYMBOL) { // return the value
-                return v;
-            } else { // build the value by evaluating left/right subtrees
-                assert op != Operation.INP;
-                String prefix = level == 0 ? "" : "(";
-                String suffix = level == 0 ? "" : ")";
-                return prefix + left.to_string(level + 1) + " " + op.toString() + " " + right.to_string(level + 1) + suffix;
+        // Return the nodes of this expression in post-order (the operands of a node before the node), each node once,
+        // without the nodes accepted by "skip" and the nodes that can only be reached through them. This is the order
+        // in which the nodes must be created in a representation that refers to them by index.
+        public ArrayList<Expression> post_order(Predicate<Expression> skip) {
+            ArrayList<Expression> res = new ArrayList<>();
+            HashSet<Expression> expanded = new HashSet<>(), done = new HashSet<>();
+            ArrayDeque<Expression> stack = new ArrayDeque<>();
+            if (!skip.test(this)) {
+                stack.push(this);
+            }
+            while (!stack.isEmpty()) {
+                Expression e = stack.peek();
+                if (done.contains(e)) {
+                    stack.pop();
+                } else if (e.kind == ExpressionKind.TREE && expanded.add(e)) {
+                    // Push the right operand first, so that the left one is done first
+                    for (Expression o: new Expression[] {e.right, e.left}) {
+                        if (!done.contains(o) && !skip.test(o)) {
+                            stack.push(o);
+                        }
+                    }
+                } else {
+                    stack.pop();
+                    done.add(e);
+                    res.add(e);
+                }
             }
+            return res;
         }
 
-        // Return the string representation of this expression
+        // Return the string representation of this expression (without parentheses around the top level operation)
         public String toString() {
-            return to_string(0);
+            return fold(new Fold<String>() {
+                public String leaf(Expression e) {
+                    return e.v;
+                }
+
+                public String node(Expression e, String left, String right, int depth) {
+                    assert e.op != Operation.INP;
+                    String res = left + " " + e.op.toString() + " " + right;
+                    return depth == 0 ? res : "(" + res + ")";
+                }
+            });
         }
 
         // Return the result of the current instance using the given left/right numbers
@@ -210,6 +698,12 @@ public class Solution {
                 case MOD:
                     res = left % right;
                     break;
+                case EQL:
+                    res = left == right ? 1 : 0;
+                    break;
+                case NEQ:
+                    res = left != right ? 1 : 0;
+                    break;
                 default:
                     assert false;
             }
@@ -217,117 +711,159 @@ public class Solution {
         }
 
         // Evaluate the value represented in this Expression by interpreting the operator in the context
-        // of the execution values in "vals"
-        public Expression eval(HashMap<String, Expression> vals) {
-            if (kind == ExpressionKind.NUMBER) { // use this instance directly
-                return this;
-            } else if (kind == ExpressionKind.SYMBOL) { // lookup the symbol in the value map
-                return vals.get(v);
-            } else {
-                assert op != Operation.INP;
-                Expression left_v = left.eval(vals);
-                Expression right_v = right.eval(vals);
-                Expression res = null;
-                if (left_v.kind == ExpressionKind.NUMBER && right_v.kind == ExpressionKind.NUMBER) {
-                    // Easy, compute the result directly
-                    res = new Expression(num_op(left_v.num_v, right_v.num_v));
-                } else { // all the other combinations, including trees, numbers and symbols
-                    Expression the_number = null;
-                    if (left_v.kind == ExpressionKind.NUMBER) {
-                        the_number = left_v;
-                    } else if (right_v.kind == ExpressionKind.NUMBER) {
-                        the_number = right_v;
-                    }
-                    switch (op) {
-                        case MUL:
-                            if (the_number != null && the_number.num_v == 0) { // anything * 0 = 0
-                                res = new Expression(0);
-                            } else if (the_number != null && the_number.num_v == 1) { // x * 1 = 1 + x = x
-                                res = the_number == left_v ? right_v : left_v;
-                            }
-                            break;
-                        case ADD:
-                            if (the_number != null && the_number.num_v == 0) { // x + 0 = 0 + x = x
-                                res = the_number == left_v ? right_v : left_v;
-                            }
-                            break;
-                        case SUB:
-                            if (right_v.kind == ExpressionKind.NUMBER && right_v.num_v == 0) { // x - 0 = x
-                                res = left_v;
-                            }
-                            break;
-                        case DIV:
-                            if (left_v.toString().equals(right_v.toString())) { // x / x = 1
-                                res = new Expression(1);
-                            } else if (right_v.kind == ExpressionKind.NUMBER && right_v.num_v == 1) { // x / 1 = x
-                                res = left_v;
-                            }
-                            break;
-                        case MOD:
-                            if (left_v.toString().equals(right_v.toString())) { // x % x = 0
-                                res = new Expression(0);
-                            } else if (right_v.kind == ExpressionKind.NUMBER && right_v.num_v == 1) { // x % 1 = 0
-                                res = new Expression(0);
-                            }
-                            break;
-                        default:
-                            assert false;
+        // of the register values in "regs" (indexed by register slot)
+        public Expression eval(Expression[] regs) {
+            return fold(new Fold<Expression>() {
+                public Expression leaf(Expression e) {
+                    if (e.kind == ExpressionKind.NUMBER) { // use this instance directly
+                        return e;
                     }
+                    // lookup the register value
+                    assert reg_index(e.v) != -1;
+                    return regs[reg_index(e.v)];
                 }
-                // Return a new expression with the evaluated values of the right and left operands
-                return res == null ? new Expression(op, left_v, right_v) : res;
-            }
+
+                public Expression node(Expression e, Expression left, Expression right, int depth) {
+                    assert e.op != Operation.INP;
+                    return simplify(e.op, left, right);
+                }
+            });
         }
 
-        // Return the limits (min_value, max_value) of this expression
+        // Return the limits (min_value, max_value) of this expression. Since expressions are interned and immutable,
+        // the limits are computed only once per expression and then reused. The operands are usually built (and
+        // their limits computed) before the expressions that use them, but after reset_limits() the limits of a
+        // whole tree may have to be computed again, so the operands without limits are walked with fold().
         public Limits get_limits() {
+            if (limits != null) {
+                limits_reused.increment();
+                return limits;
+            }
+            return fold(new Fold<Limits>() {
+                public Limits leaf(Expression e) {
+                    if (e.limits != null) {
+                        limits_reused.increment();
+                    } else {
+                        e.limits = e.compute_limits(null, null);
+                        limits_computed.increment();
+                    }
+                    return e.limits;
+                }
+
+                public Limits node(Expression e, Limits left, Limits right, int depth) {
+                    e.limits = e.compute_limits(left, right);
+                    limits_computed.increment();
+                    return e.limits;
+                }
+
+                public boolean is_leaf(Expression e) {
+                    return e.kind != ExpressionKind.TREE || e.limits != null;
+                }
+            });
+        }
+
+        // Compute the limits of this expression from the limits of its operands ("l" and "r", not used for numbers
+        // and symbols). The intervals follow the semantics of Java's operators (truncating division, remainder with
+        // the sign of the dividend); a division by zero would stop the ALU, so the divisor is assumed to be non-zero.
+        private Limits compute_limits(Limits l, Limits r) {
             if (kind == ExpressionKind.NUMBER) {
                 return new Limits(this.num_v, this.num_v);
             } else if (kind == ExpressionKind.SYMBOL) {
                 assert v.charAt(0) == 'd'; // we can only return limits for digits
                 return new Limits(1, 9);
-            } else {
-                Limits left_limits = left.get_limits();
-                long min_left = left_limits.min;
-                long max_left = left_limits.max;
-                Limits right_limits = right.get_limits();
-                long min_right = right_limits.min;
-                long max_right = right_limits.max;
-                long res_min = 0, res_max = 0;
-                switch (op) {
-                    case ADD:
-                    case SUB:
-                        if (op == Operation.SUB) { // x - delta = x + (-delta)
-                            long temp = min_right;
-                            min_right = -max_right;
-                            max_right = -temp;
+            }
+            if (l.modulus == 0 && r.modulus == 0 && !((op == Operation.DIV || op == Operation.MOD) && r.residue == 0)) {
+                long v = num_op(l.residue, r.residue);
+                return new Limits(v, v);
+            }
+            long res_min, res_max;
+            long modulus = 1, residue = 0;
+            long k = r.modulus == 0 ? r.residue : 0;    // the constant divisor of a DIV or MOD (0 if not constant)
+            switch (op) {
+                case ADD:
+                    res_min = sat_add(l.min, r.min);
+                    res_max = sat_add(l.max, r.max);
+                    modulus = gcd(l.modulus, r.modulus);
+                    residue = l.residue + r.residue;
+                    break;
+                case SUB:
+                    res_min = sat_add(l.min, sat_neg(r.max));
+                    res_max = sat_add(l.max, sat_neg(r.min));
+                    modulus = gcd(l.modulus, r.modulus);
+                    residue = l.residue - r.residue;
+                    break;
+                case MUL: {
+                    long[] corners = {sat_mul(l.min, r.min), sat_mul(l.min, r.max), sat_mul(l.max, r.min), sat_mul(l.max, r.max)};
+                    res_min = Math.min(Math.min(corners[0], corners[1]), Math.min(corners[2], corners[3]));
+                    res_max = Math.max(Math.max(corners[0], corners[1]), Math.max(corners[2], corners[3]));
+                    // (m1 * a + r1) * (m2 * b + r2) = m1 * m2 * a * b + m1 * r2 * a + m2 * r1 * b + r1 * r2
+                    if (fits_product(l.modulus, r.modulus) && fits_product(l.modulus, r.residue) && fits_product(r.modulus, l.residue)
+                        && fits_product(l.residue, r.residue)) {
+                        modulus = gcd(gcd(l.modulus * r.modulus, l.modulus * r.residue), r.modulus * l.residue);
+                        residue = l.residue * r.residue;
+                    }
+                    break;
+                }
+                case DIV:
+                    // The quotient is monotonic in each operand on each side of 0, so the limits are at the corners of
+                    // the positive and negative parts of the divisor's interval
+                    res_min = Long.MAX_VALUE;
+                    res_max = Long.MIN_VALUE;
+                    for (long[] part: new long[][] {{Math.max(r.min, 1), r.max}, {r.min, Math.min(r.max, -1)}}) {
+                        if (part[0] <= part[1]) {
+                            for (long a: new long[] {l.min, l.max}) {
+                                for (long b: part) {
+                                    res_min = Math.min(res_min, div_bound(a, b));
+                                    res_max = Math.max(res_max, div_bound(a, b));
+                                }
+                            }
                         }
-                        res_min = min_left + min_right;
-                        res_max = max_left + max_right;
-                        break;
-                    case MOD:
-                        assert min_right > 0 && max_right > 0;
-                        res_min = 0;
-                        res_max = Math.min(min_right, max_right) - 1;
-                        break;
-                    case MUL:
-                        assert min_right > 0 && max_right > 0;
-                        res_min = min_left * min_right;
-                        res_max = max_left * max_right;
-                        break;
-                    case DIV:
-                        assert min_right > 0 && max_right > 0;
-                        long min_div = Math.min(min_right, max_right);
-                        long max_div = Math.max(min_right, max_right);
-                        res_min = min_left / max_div;
-                        res_max = max_left / min_div;
-                        break;
-                    default:
-                        assert false;
+                    }
+                    if (res_min > res_max) { // the divisor is always 0 (the ALU stops)
+                        res_min = res_max = 0;
+                    }
+                    // (m * a + r) / k = (m / k) * a + r / k if k divides m (for non-negative values, with 0 <= r < m)
+                    if (k > 0 && l.min >= 0 && l.modulus > 0 && l.modulus % k == 0) {
+                        modulus = l.modulus / k;
+                        residue = l.residue / k;
+                    }
+                    break;
+                case MOD: {
+                    // |x % y| < |y| and x % y has the sign of x
+                    long bound = Math.max(sat_neg(r.min), r.max) - 1;
+                    if (k > 0 && (l.min >= 0 || l.max <= 0) && l.min / k == l.max / k) { // all the values are in the same period
+                        res_min = l.min % k;
+                        res_max = l.max % k;
+                    } else {
+                        res_min = l.min >= 0 ? 0 : Math.max(l.min, -bound);
+                        res_max = l.max <= 0 ? 0 : Math.min(l.max, bound);
+                    }
+                    // x % k = x - k * (x / k), so x % k has the same residue as x modulo gcd(m, k) (for x >= 0)
+                    if (k > 0 && l.min >= 0) {
+                        modulus = l.modulus == 0 ? 0 : gcd(l.modulus, k);
+                        residue = l.modulus == 0 ? l.residue % k : Math.floorMod(l.residue, modulus);
+                    }
+                    break;
+                }
+                default: { // EQL, NEQ
+                    res_min = 0;
+                    res_max = 1;
+                    boolean can_be_equal = l.intersects(r);
+                    boolean always_equal = left == right || (l.modulus == 0 && r.modulus == 0 && l.residue == r.residue);
+                    if (!can_be_equal) {
+                        res_min = res_max = op == Operation.EQL ? 0 : 1;
+                    } else if (always_equal) {
+                        res_min = res_max = op == Operation.EQL ? 1 : 0;
+                    }
                 }
-                assert res_min <= res_max;
-                return new Limits(res_min, res_max);
             }
+            assert res_min <= res_max;
+            return new Limits(res_min, res_max, modulus, residue);
+        }
+
+        // Return the quotient a / b as an interval bound (Long.MIN_VALUE / -1 overflows)
+        private long div_bound(long a, long b) {
+            return a == Long.MIN_VALUE && b == -1 ? Long.MAX_VALUE : a / b;
         }
 
         // Return true if the given EQL condition is always false by analyzing the intervals of its operands
@@ -346,41 +882,109 @@ public class Solution {
             return !left_limits.intersects(right_limits);
         }
 
+        // Return the index of the input digit for a digit symbol ("d<index>")
+        public int digit_no() {
+            assert kind == ExpressionKind.SYMBOL && digit != -1;
+            return digit;
+        }
+
+        // Return true if this condition (EQL or NEQ) can never be true
+        public boolean is_definitely_false() {
+            assert op == Operation.EQL || op == Operation.NEQ;
+            if (op == Operation.EQL) {
+                return eql_is_definitely_false();
+            }
+            // a != b is false only if a and b always have the same value
+            Limits left_limits = left.get_limits();
+            Limits right_limits = right.get_limits();
+            return left == right || (left_limits.min == left_limits.max && right_limits.min == right_limits.max && left_limits.min == right_limits.min);
+        }
+
         // Set all the input digits found in this expression in the "m" set
         public void _analyze_digits(TreeSet<Integer> m) {
-            if (kind == ExpressionKind.SYMBOL) {
-                assert v.charAt(0) == 'd'; // we can only return limits for digits
-                int dig_no = Integer.parseInt(v.substring(1));
-                m.add(dig_no);
-            } else if (kind == ExpressionKind.TREE) {
-                left._analyze_digits(m);
-                right._analyze_digits(m);
+            for (Expression e: post_order(o -> false)) {
+                if (e.kind == ExpressionKind.SYMBOL) {
+                    assert e.digit != -1; // we can only return limits for digits
+                    m.add(e.digit);
+                }
             }
         }
 
-        // Wrapper for the above function
+        // Wrapper for the above function for conditions: only the digits in the value side are needed
         public void analyze_digits(TreeSet<Integer> m) {
             assert kind == ExpressionKind.TREE && (op == Operation.EQL || op == Operation.NEQ);
-            if (left.kind == ExpressionKind.SYMBOL) {
-                assert right.kind == ExpressionKind.TREE;
-                right._analyze_digits(m);
-            } else {
-                assert left.kind == ExpressionKind.TREE;
-                left._analyze_digits(m);
-            }
+            cond_value()._analyze_digits(m);
         }
 
-        // Evaluate the expression with the given input digits
-        public long eval_with_digits(int[] digs) {
+        // Return the digit side of a condition between an input digit and an expression. That's the right operand if
+        // it's a symbol (which is how the interpreter builds the conditions, since the digits are read into "w"), but
+        // the simplifier can also reduce the other side to a single digit.
+        public Expression cond_digit() {
+            return right.kind == ExpressionKind.SYMBOL ? right : left;
+        }
+
+        // Return the value side of a condition (the other operand than cond_digit())
+        public Expression cond_value() {
+            return right.kind == ExpressionKind.SYMBOL ? left : right;
+        }
+
+        // Return the value of a number or digit symbol with the given input digits
+        private long leaf_value(int[] digs) {
             if (kind == ExpressionKind.NUMBER) {
                 return num_v;
-            } else if (kind == ExpressionKind.SYMBOL) {
-                assert v.charAt(0) == 'd';
-                return digs[Integer.parseInt(v.substring(1))];
-            } else {
-                long left_v = left.eval_with_digits(digs);
-                long right_v = right.eval_with_digits(digs);
-                return num_op(left_v, right_v);
+            }
+            assert digit != -1;
+            return digs[digit];
+        }
+
+        // Evaluate the expression with the given input digits. This runs for each candidate with --eval=tree, and a
+        // recursive walk is about twice as fast as an explicit stack (the JIT inlines a few levels of it and there is
+        // nothing to allocate), so it's used when the expression is shallow enough for the thread stack.
+        public long eval_with_digits(int[] digs) {
+            return height <= MAX_RECURSION_HEIGHT ? eval_recursive(digs) : eval_iterative(digs);
+        }
+
+        private long eval_recursive(int[] digs) {
+            if (kind != ExpressionKind.TREE) {
+                return leaf_value(digs);
+            }
+            return num_op(left.eval_recursive(digs), right.eval_recursive(digs));
+        }
+
+        // The same walk as fold(), with the values kept in a long array and the leaves on the right side evaluated
+        // directly
+        private long eval_iterative(int[] digs) {
+            Expression[] path = new Expression[height]; // the TREE nodes from the root to the current node
+            boolean[] on_right = new boolean[height];   // true for the nodes whose right operand is being walked
+            long[] left_vals = new long[height];        // the value of the left operand of those nodes
+            int sp = 0;
+            Expression n = this;
+            while (true) {
+                while (n.kind == ExpressionKind.TREE) {
+                    path[sp] = n;
+                    on_right[sp ++] = false;
+                    n = n.left;
+                }
+                long v = n.leaf_value(digs);
+                // Go up while both operands of the current node are known
+                while (true) {
+                    if (sp == 0) {
+                        return v;
+                    }
+                    Expression p = path[sp - 1];
+                    if (on_right[sp - 1]) {
+                        v = p.num_op(left_vals[sp - 1], v);
+                        sp --;
+                    } else if (p.right.kind != ExpressionKind.TREE) {
+                        v = p.num_op(v, p.right.leaf_value(digs));
+                        sp --;
+                    } else {
+                        left_vals[sp - 1] = v;
+                        on_right[sp - 1] = true;
+                        n = p.right;
+                        break;
+                    }
+                }
             }
         }
 
@@ -388,18 +992,7 @@ public class Solution {
         // Return a (digit_numer, digit_value) pair
         public DigitValue check_digit_condition(int[] digs) {
             assert kind == ExpressionKind.TREE && op == Operation.EQL;
-            int digit_no = 0, digit_val = 0;
-            if (left.kind == ExpressionKind.SYMBOL) {
-                assert right.kind == ExpressionKind.TREE;
-                digit_no = Integer.parseInt(left.v.substring(1));
-                digit_val = (int)right.eval_with_digits(digs);
-            } else {
-                assert left.kind == ExpressionKind.TREE;
-                digit_no = Integer.parseInt(right.v.substring(1));
-                digit_val = (int)left.eval_with_digits(digs);
-
-            }
-            return new DigitValue(digit_no, digit_val);
+            return new DigitValue(cond_digit().digit_no(), (int)cond_value().eval_with_digits(digs));
         }
     }
 
@@ -412,32 +1005,38 @@ public class Solution {
         public String op_str;
         public String dest;
         public String src;
+        public int dest_reg;            // register slot of the destination
+        public int src_reg;             // register slot of the source (-1 if it's an immediate or missing)
         public long src_num;
         public boolean src_is_num;
+        public Expression src_expr;     // the immediate source as an (interned) expression
 
-        public Instruction(String op, String dest, String src) {
-            op_str = op;
-            this.op = str_to_op.get(op);
-            this.dest = dest;
-            this.src = src;
-            try {
-                src_num = Long.parseLong(src);
+        // Constructor for an instruction with operands that were already resolved by the loader
+        public Instruction(Operation op, int dest_reg, int src_reg, long src_num) {
+            this.op = op;
+            op_str = OP_NAMES[op.ordinal()];
+            this.dest_reg = dest_reg;
+            this.src_reg = src_reg;
+            dest = REGISTERS.substring(dest_reg, dest_reg + 1);
+            if (op == Operation.INP) {
+                src = null;
+                src_is_num = false;
+                this.src_num = 0;
+            } else if (src_reg == -1) {
                 src_is_num = true;
-            } catch (Exception e) {
-                src_num = 0;
+                this.src_num = src_num;
+                src = Long.toString(src_num);
+                src_expr = make_number(src_num);
+            } else {
                 src_is_num = false;
+                this.src_num = 0;
+                src = REGISTERS.substring(src_reg, src_reg + 1);
             }
         }
 
-        public void change_op(String new_op) {
-            op_str = new_op;
-            this.op = str_to_op.get(new_op);
-        }
-
-        public void change_src_num(long new_num) {
-            assert src_is_num;
-            src_num = new_num;
-            src = Long.toString(new_num);
+        // Return the value of the source operand given the register file "regs"
+        public Expression src_value(Expression[] regs) {
+            return src_is_num ? src_expr : regs[src_reg];
         }
 
         public String toString() {
@@ -446,143 +1045,3310 @@ public class Solution {
     }
 
     // ****************************************************************************************************************
-    // A generator for all the possible inputs to the final expression(s)
+    // The optimizer rewrites the instruction list before solving. The enabled passes run in order, and again until
+    // none of them changes the program anymore. A pass doesn't change the instructions it gets, it returns a new list.
+    //   - ALG: algebraic identities: merge consecutive immediates on the same register ("add x 2" + "add x 3" =>
+    //     "add x 5", same for MUL and DIV), "sub r r" and "mod r 1" => "mul r 0", "add r -n" => "sub r n" and
+    //     "eql a b" + "eql a 0" => "neq a b"
+    //   - FOLD: constant folding: track the registers with known values (all of them are 0 at start), replace the
+    //     registers with known values by immediates and remove the instructions that don't change their destination
+    //   - COPY: copy propagation: after "mul a 0" + "add a b", "a" is a copy of "b", so the instructions that read "a"
+    //     read "b" instead (until one of them changes or the next INP instruction), which can leave the copy dead
+    //   - NOP: remove the instructions that never change their destination ("add r 0", "mul r 1", "div r 1", ...)
+    //   - DSE: dead store elimination: remove the instructions with results that are overwritten before they are read
+    //     (only "z" is read at the end of the program). INP instructions are always kept, since they consume a digit.
+    // The optimized program is checked against the original one with the concrete ALU on random inputs; if they
+    // don't compute the same "z", the original program is used instead.
 
-    class Generator {
-        private int digits;                             // number of digits
-        public int[] values;                            // currenet digit values
-        private boolean overflowed;                     // true if this generator is done
+    class Optimizer {
+        private EnumSet<Pass> passes;                   // the enabled passes
+        public long[] removed;                          // number of instructions removed by each pass (by ordinal)
+        public int size_before, size_after;             // size of the program before and after optimizing
 
-        public Generator(int size) {
-            digits = size;
-            values = new int[size];
-            // Initiaize generator with 1 except for the last position which should be a 0 for the next next() call
-            for (int i = 0; i < size; i ++) {
-                values[i] = 1;
+        public String check_failure;                    // why the optimized program was rejected (null if it wasn't)
+
+        // Upper limit for the number of times the passes run, just in case they keep on rewriting each other
+        private static final int MAX_ROUNDS = 16;
+
+        // Number of random inputs used for checking the optimized program
+        private static final int CHECK_INPUTS = 256;
+
+        public Optimizer(EnumSet<Pass> passes) {
+            this.passes = passes;
+            removed = new long[Pass.values().length];
+        }
+
+        // Return the optimized version of "program"
+        public ArrayList<Instruction> run(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = program;
+            size_before = program.size();
+            boolean changed = true;
+            for (int round = 0; changed && round < MAX_ROUNDS; round ++) {
+                changed = false;
+                for (Pass p: passes) {
+                    ArrayList<Instruction> next = run_pass(p, res);
+                    removed[p.ordinal()] += res.size() - next.size();
+                    changed |= !next.equals(res);
+                    res = next;
+                }
             }
-            values[size - 1] = 0;
-            overflowed = false;
+            if (res != program && (check_failure = check(program, res)) != null) {
+                res = program;
+                Arrays.fill(removed, 0);
+            }
+            size_after = res.size();
+            return res;
         }
 
-        // Generate and return the next value
-        public int[] next() {
-            assert overflowed == false;
-            boolean ok = false;
-            if (values[digits - 1] == 9) { // overflowed last digit, find the previous digit that can be incremented
-                for (int idx = digits - 2; idx >= 0; idx -= 1) {
-                    if (values[idx] < 9) {
-                        values[idx] += 1;
-                        ok = true;
-                        // Reset all the other digits to 1
-                        for (int i = idx + 1; i < digits; i ++) {
-                            values[i] = 1;
-                        }
-                        break;
+        // Run the original and the optimized program with the concrete ALU on random inputs (always the same ones) and
+        // return a description of the first input for which they compute different values of "z", or null if there is
+        // none. The inputs that stop the original program (division by zero) are skipped.
+        private String check(ArrayList<Instruction> original, ArrayList<Instruction> optimized) {
+            Alu before = new Alu(original), after = new Alu(optimized);
+            long[] regs = new long[REGISTERS.length()];
+            Random rnd = new Random(24);
+            int[] input = new int[(int)original.stream().filter(i -> i.op == Operation.INP).count()];
+            for (int k = 0; k < CHECK_INPUTS; k ++) {
+                for (int d = 0; d < input.length; d ++) {
+                    input[d] = 1 + rnd.nextInt(9);
+                }
+                long expected;
+                try {
+                    expected = before.run(input, regs);
+                } catch (ArithmeticException e) {
+                    continue;
+                }
+                String res;
+                try {
+                    long z = after.run(input, regs);
+                    res = z == expected ? null : String.format("z = %d instead of %d", z, expected);
+                } catch (ArithmeticException e) {
+                    res = String.format("%s instead of z = %d", e.getMessage(), expected);
+                }
+                if (res != null) {
+                    StringBuilder digits = new StringBuilder();
+                    for (int d: input) {
+                        digits.append(d);
                     }
+                    return String.format("input %s: %s", digits, res);
                 }
-            } else {
-                ok = true;
-                values[digits - 1] += 1;
-            }
-            if (!ok) {
-                overflowed = true;
-                return null;
-            } else {
-                return values;
             }
+            return null;
         }
-    }
 
-    // ****************************************************************************************************************
-    // Various utilities
+        private ArrayList<Instruction> run_pass(Pass p, ArrayList<Instruction> program) {
+            switch (p) {
+                case ALG:
+                    return algebraic(program);
+                case FOLD:
+                    return fold(program);
+                case COPY:
+                    return copy(program);
+                case NOP:
+                    return nop(program);
+                default:
+                    return dse(program);
+            }
+        }
 
-    // Read input file and populate the internal Instructions array
-    void read_input(String fname) throws FileNotFoundException {
-        InputStream is = new FileInputStream(fname);
-        Scanner sc = new Scanner(is, StandardCharsets.US_ASCII.name());
-        Instruction prev_i = null;
-        while (sc.hasNextLine()) {
-            String l = sc.nextLine();
-            String[] parts = l.trim().split(" ");
-            Instruction i = new Instruction(parts[0], parts[1], parts.length == 3 ? parts[2] : null);
-            boolean skip_add = false;
-            // add x -num => sub x num
-            if (i.op == Operation.ADD && i.src_is_num && i.src_num < 0) {
-                i.change_op("sub");
-                i.change_src_num(-i.src_num);
-            }
-            // Convert a sequence of consecutive EQL <a> <b> / EQL <a> [0|1] to a single EQL/NEQ as needed
-            if (i.op == Operation.EQL && prev_i != null && prev_i.op == Operation.EQL && i.dest.equals(prev_i.dest) && i.src_is_num && (i.src_num == 0 || i.src_num == 1)) {
-                skip_add = true;
-                if (i.src_num == 0) {
-                    prev_i.change_op("neq");
-                }
-            }
-            if (!skip_add) {
-                instructions.add(i);
-                prev_i = i;
-            }
-        }
-        sc.close();
-        // This is still as ridiculous as it gets
+        private ArrayList<Instruction> algebraic(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = new ArrayList<>();
+            for (Instruction i: program) {
+                Instruction prev = res.isEmpty() ? null : res.get(res.size() - 1);
+                int d = i.dest_reg;
+                long n = i.src_num;
+                if (i.op == Operation.INP) {
+                    res.add(i);
+                    continue;
+                }
+                if (!i.src_is_num) {
+                    if (i.op == Operation.SUB && i.src_reg == d) { // r - r = 0
+                        i = new Instruction(Operation.MUL, d, -1, 0);
+                    }
+                    res.add(i);
+                    continue;
+                }
+                if (i.op == Operation.ADD && n < 0 && n != Long.MIN_VALUE) { // x + -n = x - n
+                    i = new Instruction(Operation.SUB, d, -1, -n);
+                } else if (i.op == Operation.MOD && n == 1) { // x % 1 = 0
+                    i = new Instruction(Operation.MUL, d, -1, 0);
+                }
+                n = i.src_num;
+                // From here on, look for an instruction with an immediate on the same register just before this one
+                if (prev == null || prev.dest_reg != d || prev.op == Operation.INP) {
+                    res.add(i);
+                    continue;
+                }
+                boolean is_add = i.op == Operation.ADD || i.op == Operation.SUB;
+                boolean prev_is_add = prev.src_is_num && (prev.op == Operation.ADD || prev.op == Operation.SUB);
+                boolean is_cmp = prev.op == Operation.EQL || prev.op == Operation.NEQ;
+                if (is_add && prev_is_add && Math.abs(n) < (1L << 62) && Math.abs(prev.src_num) < (1L << 62)) {
+                    // x + a + b = x + (a + b)
+                    long total = (prev.op == Operation.ADD ? prev.src_num : -prev.src_num) + (i.op == Operation.ADD ? n : -n);
+                    res.remove(res.size() - 1);
+                    if (total != 0) {
+                        res.add(total > 0 ? new Instruction(Operation.ADD, d, -1, total) : new Instruction(Operation.SUB, d, -1, -total));
+                    }
+                } else if ((i.op == Operation.MUL || i.op == Operation.DIV) && prev.op == i.op && prev.src_is_num && fits_product(prev.src_num, n)
+                    && (i.op == Operation.MUL || (n > 0 && prev.src_num > 0))) {
+                    // x * a * b = x * (a * b), (x / a) / b = x / (a * b) (truncating division, a, b > 0)
+                    res.set(res.size() - 1, new Instruction(i.op, d, -1, prev.src_num * n));
+                } else if (i.op == Operation.EQL && is_cmp && n == 0) { // (a == b) == 0 => a != b (and the other way around)
+                    res.set(res.size() - 1, new Instruction(prev.op == Operation.EQL ? Operation.NEQ : Operation.EQL, d, prev.src_reg, prev.src_num));
+                } else if (!(i.op == Operation.EQL && is_cmp && n == 1)) { // (a == b) == 1 is just (a == b)
+                    res.add(i);
+                }
+            }
+            return res;
+        }
+
+        private ArrayList<Instruction> fold(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = new ArrayList<>();
+            Long[] vals = new Long[REGISTERS.length()];
+            Arrays.fill(vals, 0L);
+            for (Instruction i: program) {
+                int d = i.dest_reg;
+                if (i.op == Operation.INP) {
+                    vals[d] = null;
+                    res.add(i);
+                    continue;
+                }
+                Long src = i.src_is_num ? (Long)i.src_num : vals[i.src_reg];
+                Long v = fold_value(i.op, vals[d], src);
+                if (v != null && v.equals(vals[d])) { // the destination doesn't change
+                    continue;
+                }
+                res.add(!i.src_is_num && src != null ? new Instruction(i.op, d, -1, src) : i);
+                vals[d] = v;
+            }
+            return res;
+        }
+
+        private ArrayList<Instruction> copy(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = new ArrayList<>();
+            int[] copy_of = new int[REGISTERS.length()];    // the register that each register is a copy of (or -1)
+            boolean[] zero = new boolean[REGISTERS.length()]; // true for the registers that are known to be 0
+            Arrays.fill(copy_of, -1);
+            Arrays.fill(zero, true);
+            for (Instruction i: program) {
+                int d = i.dest_reg;
+                if (i.op == Operation.INP) {
+                    // Keep the input blocks independent (the block engines depend on that), so forget all the copies
+                    Arrays.fill(copy_of, -1);
+                }
+                if (i.op != Operation.INP && !i.src_is_num && copy_of[i.src_reg] != -1) {
+                    i = new Instruction(i.op, d, copy_of[i.src_reg], 0);
+                }
+                res.add(i);
+                // "d" changed, so it's not a copy anymore and the registers that were copies of "d" aren't either
+                boolean is_copy = i.op == Operation.ADD && !i.src_is_num && i.src_reg != d && zero[d];
+                for (int r = 0; r < copy_of.length; r ++) {
+                    if (copy_of[r] == d) {
+                        copy_of[r] = -1;
+                    }
+                }
+                copy_of[d] = is_copy ? i.src_reg : -1;
+                zero[d] = (i.op == Operation.MUL && i.src_is_num && i.src_num == 0) || (is_copy && zero[i.src_reg]);
+            }
+            return res;
+        }
+
+        private ArrayList<Instruction> nop(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = new ArrayList<>();
+            for (Instruction i: program) {
+                boolean is_nop = i.op != Operation.INP && i.src_is_num
+                    && ((i.src_num == 0 && (i.op == Operation.ADD || i.op == Operation.SUB))
+                        || (i.src_num == 1 && (i.op == Operation.MUL || i.op == Operation.DIV)));
+                if (!is_nop) {
+                    res.add(i);
+                }
+            }
+            return res;
+        }
+
+        private ArrayList<Instruction> dse(ArrayList<Instruction> program) {
+            ArrayList<Instruction> res = new ArrayList<>();
+            boolean[] live = new boolean[REGISTERS.length()];
+            live[reg_index("z")] = true;
+            for (int idx = program.size() - 1; idx >= 0; idx --) {
+                Instruction i = program.get(idx);
+                int d = i.dest_reg;
+                if (i.op != Operation.INP && !live[d]) {
+                    continue;
+                }
+                res.add(i);
+                // "mul d 0" overwrites "d" without reading it
+                live[d] = i.op != Operation.INP && !(i.op == Operation.MUL && i.src_is_num && i.src_num == 0);
+                if (i.op != Operation.INP && !i.src_is_num) {
+                    live[i.src_reg] = true;
+                }
+            }
+            Collections.reverse(res);
+            return res;
+        }
+    }
+
+    // ****************************************************************************************************************
+    // A generator for all the possible inputs to the final expression(s)
+
+    class Generator {
+        private int digits;                             // number of digits
+        public int[] values;                            // currenet digit values
+        public int changed;                             // the first position changed by the last next() call
+        private boolean overflowed;                     // true if this generator is done
+        private boolean empty_done;                     // with no digits, true after the (only) empty value
+
+        public Generator(int size) {
+            digits = size;
+            values = new int[size];
+            // Initiaize generator with 1 except for the last position which should be a 0 for the next next() call
+            for (int i = 0; i < size; i ++) {
+                values[i] = 1;
+            }
+            if (size > 0) {
+                values[size - 1] = 0;
+            }
+            overflowed = false;
+        }
+
+        // Create a generator that returns the "start"-th value (0 based) on the first next() call
+        public Generator(int size, long start) {
+            digits = size;
+            values = new int[size];
+            // Write "start" in base 9 (with digits from 1 to 9), then decrement the last digit for the next next() call
+            for (int i = size - 1; i >= 0; i --) {
+                values[i] = (int)(start % 9) + 1;
+                start /= 9;
+            }
+            if (size > 0) {
+                values[size - 1] -= 1;
+            }
+            overflowed = false;
+        }
+
+        // Generate and return the next value
+        public int[] next() {
+            assert overflowed == false;
+            boolean ok = false;
+            if (digits == 0) { // a single value, with no digits
+                ok = !empty_done;
+                empty_done = true;
+                changed = 0;
+            } else if (values[digits - 1] == 9) { // overflowed last digit, find the previous digit that can be incremented
+                for (int idx = digits - 2; idx >= 0; idx -= 1) {
+                    if (values[idx] < 9) {
+                        values[idx] += 1;
+                        changed = idx;
+                        ok = true;
+                        // Reset all the other digits to 1
+                        for (int i = idx + 1; i < digits; i ++) {
+                            values[i] = 1;
+                        }
+                        break;
+                    }
+                }
+            } else {
+                ok = true;
+                values[digits - 1] += 1;
+                changed = digits - 1;
+            }
+            if (!ok) {
+                overflowed = true;
+                return null;
+            } else {
+                return values;
+            }
+        }
+    }
+
+    // ****************************************************************************************************************
+    // A checker decides if a set of input digits is accepted by the final result: all its conditions must be true and
+    // its expression must be 0. The digits computed from the conditions are stored in "digits". check() also tells why
+    // the digits were rejected (for the statistics).
+
+    interface DigitChecker {
+        int ACCEPTED = 0, BAD_CONDITION = 1, BAD_Z = 2; // results of check()
+
+        int check(int[] digits);
+
+        default boolean accept(int[] digits) {
+            return check(digits) == ACCEPTED;
+        }
+    }
+
+    // Checker that evaluates the expression trees directly
+    class TreeChecker implements DigitChecker {
+        private ArrayList<Expression> conds;            // the conditions (EQL between a digit and an expression)
+        private Expression z;                           // the final expression
+        private boolean must_eval_expr;                 // true if the final expression needs to be evaluated
+
+        public TreeChecker(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) {
+            this.conds = conds;
+            this.z = z;
+            this.must_eval_expr = must_eval_expr;
+        }
+
+        public int check(int[] digits) {
+            for (Expression c: conds) {
+                DigitValue d = c.check_digit_condition(digits);
+                if (d.val <= 0 || d.val > 9) { // invalid digit
+                    return BAD_CONDITION;
+                }
+                // Digit OK, store it
+                digits[d.dig_no] = d.val;
+            }
+            // Evaluate the expression if needed and reject if its value is not 0
+            return !must_eval_expr || z.eval_with_digits(digits) == 0 ? ACCEPTED : BAD_Z;
+        }
+    }
+
+    // Checker that runs a Java class generated from the conditions and the final expression. The generated code
+    // evaluates each distinct subexpression once (in a local variable) and has the digit numbers resolved at compile
+    // time, so the JIT can inline and register-allocate the whole check.
+    class CompiledChecker implements DigitChecker {
+        private ToIntFunction<int[]> compiled;          // instance of the generated class
+
+        public CompiledChecker(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) throws Exception {
+            compiled = new ExpressionCompiler().compile(conds, z, must_eval_expr);
+        }
+
+        public int check(int[] digits) {
+            return compiled.applyAsInt(digits);
+        }
+    }
+
+    // Checker that runs two other checkers on the same input and counts the differences between them
+    class CompareChecker implements DigitChecker {
+        private DigitChecker reference, other;
+
+        public CompareChecker(DigitChecker reference, DigitChecker other) {
+            this.reference = reference;
+            this.other = other;
+        }
+
+        public int check(int[] digits) {
+            int[] other_digits = digits.clone();
+            int res = reference.check(digits);
+            int other_res = other.check(other_digits);
+            if (res != other_res || (res == ACCEPTED && !Arrays.equals(digits, other_digits))) {
+                eval_mismatches.increment();
+            }
+            return res;
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Compiles Java source code in memory with the system Java compiler and loads the resulting class with a private
+    // class loader. Used to turn parts of the ALU program into code that the JIT can optimize as a whole.
+
+    class JavaSourceCompiler {
+        // In-memory source file for the compiler
+        class Source extends SimpleJavaFileObject {
+            private String text;
+
+            public Source(String class_name, String text) {
+                super(URI.create("string:///" + class_name + Kind.SOURCE.extension), Kind.SOURCE);
+                this.text = text;
+            }
+
+            public CharSequence getCharContent(boolean ignore_encoding_errors) {
+                return text;
+            }
+        }
+
+        // In-memory class file produced by the compiler
+        class ClassFile extends SimpleJavaFileObject {
+            private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            public ClassFile(String class_name) {
+                super(URI.create("bytes:///" + class_name + Kind.CLASS.extension), Kind.CLASS);
+            }
+
+            public OutputStream openOutputStream() {
+                return bytes;
+            }
+        }
+
+        // Class loader for the generated class
+        class Loader extends ClassLoader {
+            public Loader() {
+                super(Solution.class.getClassLoader());
+            }
+
+            public Class<?> define(String name, byte[] b) {
+                return defineClass(name, b, 0, b.length);
+            }
+        }
+
+        // Compile the source of a single class with a public no-argument constructor and return a new instance of it
+        public Object instantiate(String class_name, String text) throws Exception {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                throw new IllegalStateException("Java compiler not available");
+            }
+            ClassFile class_file = new ClassFile(class_name);
+            JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(null, null, null)) {
+                public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+                    return class_file;
+                }
+            };
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean ok = compiler.getTask(null, fm, diagnostics, null, null, List.of(new Source(class_name, text))).call();
+            if (!ok) {
+                throw new IllegalStateException("Compilation failed: " + diagnostics.getDiagnostics().toString());
+            }
+            Class<?> c = new Loader().define(class_name, class_file.bytes.toByteArray());
+            return c.getDeclaredConstructor().newInstance();
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Compiler from (conditions, expression) to a Java class that implements ToIntFunction<int[]> (with the same result
+    // as DigitChecker.check)
+
+    class ExpressionCompiler {
+        private StringBuilder code;                     // code of the generated "applyAsInt" method
+        private HashMap<Integer, String> emitted;       // expression ID -> local variable holding its value
+        private int next_local;                         // index of the next local variable
+
+        // Return the Java expression for the value of an expression that is a leaf or was already emitted
+        private String value_of(Expression e) {
+            if (e.kind == ExpressionKind.NUMBER) {
+                return String.format("(%dL)", e.num_v);
+            } else if (e.kind == ExpressionKind.SYMBOL) {
+                return String.format("(long)d[%d]", e.digit_no());
+            }
+            return emitted.get(e.id);
+        }
+
+        // Emit the code that computes the given expression (operands first, skipping the ones that were already
+        // emitted) and return the Java expression for its value
+        private String emit(Expression e) {
+            for (Expression n: e.post_order(o -> emitted.containsKey(o.id))) {
+                if (n.kind != ExpressionKind.TREE) {
+                    continue;
+                }
+                String left_v = value_of(n.left);
+                String right_v = value_of(n.right);
+                String local = String.format("t%d", next_local ++);
+                if (n.op == Operation.EQL || n.op == Operation.NEQ) {
+                    code.append(String.format("        long %s = %s %s %s ? 1L : 0L;\n", local, left_v, n.op.toString(), right_v));
+                } else {
+                    code.append(String.format("        long %s = %s %s %s;\n", local, left_v, n.op.toString(), right_v));
+                }
+                emitted.put(n.id, local);
+            }
+            return value_of(e);
+        }
+
+        // Compile the conditions and the final expression and return an instance of the generated class
+        @SuppressWarnings("unchecked")
+        public ToIntFunction<int[]> compile(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) throws Exception {
+            code = new StringBuilder();
+            emitted = new HashMap<>();
+            next_local = 0;
+            for (Expression c: conds) {
+                assert c.op == Operation.EQL;
+                Expression dig = c.cond_digit();
+                Expression other = c.cond_value();
+                String val = emit(other);
+                String local = String.format("v%d", next_local ++);
+                code.append(String.format("        int %s = (int)%s;\n", local, val));
+                code.append(String.format("        if (%s <= 0 || %s > 9) return %d;\n", local, local, DigitChecker.BAD_CONDITION));
+                code.append(String.format("        d[%d] = %s;\n", dig.digit_no(), local));
+            }
+            code.append(must_eval_expr ? String.format("        return %s == 0 ? %d : %d;\n", emit(z), DigitChecker.ACCEPTED, DigitChecker.BAD_Z)
+                : String.format("        return %d;\n", DigitChecker.ACCEPTED));
+            String class_name = "Day24Checker";
+            String text = "public final class " + class_name + " implements java.util.function.ToIntFunction<int[]> {\n" +
+                "    public int applyAsInt(int[] d) {\n" + code.toString() + "    }\n}\n";
+            return (ToIntFunction<int[]>)new JavaSourceCompiler().instantiate(class_name, text);
+        }
+    }
+
+    // A compact copy of the conditions and the final expression, used for evaluating them. Instead of one object per
+    // expression, the nodes are stored in parallel primitive arrays (kind, operands and immediate value) and refer to
+    // each other by index. The nodes needed by a condition are stored right after the ones needed by the previous
+    // conditions and after their own operands, so a condition is evaluated by a simple loop over a range of nodes, no
+    // recursion and no pointer chasing. Digits are integer indexes and constants are stored in the nodes.
+
+    class NodePool implements DigitChecker {
+        // Node kinds
+        static final byte P_CONST = 0, P_DIGIT = 1, P_ADD = 2, P_SUB = 3, P_MUL = 4, P_DIV = 5, P_MOD = 6, P_EQL = 7, P_NEQ = 8;
+
+        protected byte[] kinds;                         // the kind of each node
+        protected int[] left, right;                    // operands of the operation nodes (node indexes)
+        protected long[] imm;                           // value of a P_CONST node, digit index of a P_DIGIT node
+        public int size;                                // number of nodes in the pool
+        protected int[] cond_digit;                     // the digit set by each condition
+        protected int[] cond_node;                      // the node with the value of each condition
+        protected int[] cond_end;                       // end of the node range of each condition (it starts where
+                                                        // the previous one ends)
+        protected int z_node;                           // node with the value of the final expression (-1 if not needed)
+        private HashMap<Integer, Integer> nodes;        // expression ID -> node (only used when building the pool)
+        private ThreadLocal<long[]> values;             // the values of the nodes (one array for each thread)
+
+        public NodePool(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) {
+            kinds = new byte[64];
+            left = new int[64];
+            right = new int[64];
+            imm = new long[64];
+            size = 0;
+            nodes = new HashMap<>();
+            cond_digit = new int[conds.size()];
+            cond_node = new int[conds.size()];
+            cond_end = new int[conds.size()];
+            for (int c = 0; c < conds.size(); c ++) {
+                assert conds.get(c).op == Operation.EQL;
+                cond_digit[c] = conds.get(c).cond_digit().digit_no();
+                // The digits are loaded again in each range, since a condition can set a digit used by the next ones
+                cond_node[c] = add(conds.get(c).cond_value(), new HashMap<>());
+                cond_end[c] = size;
+            }
+            z_node = must_eval_expr ? add(z, new HashMap<>()) : -1;
+            nodes = null;
+            long[] initial = new long[size];
+            values = ThreadLocal.withInitial(() -> initial.clone());
+        }
+
+        // Add the nodes of "e" that are not in the pool yet (operands first) and return the index of its node. "loads"
+        // are the digit nodes already added to the current range.
+        private int add(Expression e, HashMap<Integer, Integer> loads) {
+            for (Expression x: e.post_order(o -> o.kind != ExpressionKind.SYMBOL && nodes.containsKey(o.id))) {
+                if (x.kind == ExpressionKind.SYMBOL) {
+                    if (!loads.containsKey(x.digit_no())) {
+                        loads.put(x.digit_no(), new_node(P_DIGIT, -1, -1, x.digit_no()));
+                    }
+                } else if (x.kind == ExpressionKind.NUMBER) {
+                    nodes.put(x.id, new_node(P_CONST, -1, -1, x.num_v));
+                } else {
+                    nodes.put(x.id, new_node(kind_of(x.op), node_of(x.left, loads), node_of(x.right, loads), 0));
+                }
+            }
+            return node_of(e, loads);
+        }
+
+        // Return the index of the node of an expression that is already in the pool
+        private int node_of(Expression e, HashMap<Integer, Integer> loads) {
+            return e.kind == ExpressionKind.SYMBOL ? loads.get(e.digit_no()) : nodes.get(e.id);
+        }
+
+        private int new_node(byte kind, int l, int r, long v) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+                imm = Arrays.copyOf(imm, size * 2);
+            }
+            kinds[size] = kind;
+            left[size] = l;
+            right[size] = r;
+            imm[size] = v;
+            return size ++;
+        }
+
+        private byte kind_of(Operation op) {
+            switch (op) {
+                case ADD:
+                    return P_ADD;
+                case SUB:
+                    return P_SUB;
+                case MUL:
+                    return P_MUL;
+                case DIV:
+                    return P_DIV;
+                case MOD:
+                    return P_MOD;
+                case EQL:
+                    return P_EQL;
+                case NEQ:
+                    return P_NEQ;
+                default:
+                    throw new IllegalArgumentException("Invalid operation " + op);
+            }
+        }
+
+        // Return the memory used by the nodes (without the arrays' headers)
+        public long bytes() {
+            return (long)size * (1 + 4 + 4 + 8);
+        }
+
+        // Evaluate the nodes from "from" (inclusive) to "to" (exclusive)
+        protected void eval(long[] vals, int[] digits, int from, int to) {
+            for (int n = from; n < to; n ++) {
+                switch (kinds[n]) {
+                    case P_CONST:
+                        vals[n] = imm[n];
+                        break;
+                    case P_DIGIT:
+                        vals[n] = digits[(int)imm[n]];
+                        break;
+                    case P_ADD:
+                        vals[n] = vals[left[n]] + vals[right[n]];
+                        break;
+                    case P_SUB:
+                        vals[n] = vals[left[n]] - vals[right[n]];
+                        break;
+                    case P_MUL:
+                        vals[n] = vals[left[n]] * vals[right[n]];
+                        break;
+                    case P_DIV:
+                        vals[n] = vals[left[n]] / vals[right[n]];
+                        break;
+                    case P_MOD:
+                        vals[n] = vals[left[n]] % vals[right[n]];
+                        break;
+                    case P_EQL:
+                        vals[n] = vals[left[n]] == vals[right[n]] ? 1 : 0;
+                        break;
+                    default:
+                        vals[n] = vals[left[n]] != vals[right[n]] ? 1 : 0;
+                }
+            }
+        }
+
+        public int check(int[] digits) {
+            long[] vals = values.get();
+            int from = 0;
+            for (int c = 0; c < cond_node.length; c ++) {
+                eval(vals, digits, from, cond_end[c]);
+                from = cond_end[c];
+                int v = (int)vals[cond_node[c]];
+                if (v <= 0 || v > 9) { // invalid digit
+                    return BAD_CONDITION;
+                }
+                digits[cond_digit[c]] = v;
+            }
+            if (z_node == -1) {
+                return ACCEPTED;
+            }
+            eval(vals, digits, from, size);
+            return vals[z_node] == 0 ? ACCEPTED : BAD_Z;
+        }
+    }
+
+    // The node pool evaluated incrementally: the generator changes only its last digit on most steps, so most nodes
+    // have the same value as for the previous candidate. The "level" of a node is the last generator position that
+    // its value depends on (-1 for constants). The nodes of each range are sorted by level (this keeps the operands
+    // before the nodes that use them, since an operand never has a higher level), so when the generator changes the
+    // positions starting with "p", only the nodes at the end of each range, starting with the first node with a level
+    // >= p, need to be evaluated again. The ranges after a failed condition were not evaluated for the previous
+    // candidate, so they are evaluated completely.
+
+    class IncrementalPool extends NodePool {
+        static final int ALWAYS = Integer.MAX_VALUE;    // level of the nodes that must always be evaluated
+
+        private int[] level;                            // the level of each node
+        private int[][] suffix;                         // suffix[r][p]: first node of range r with a level >= p
+
+        public IncrementalPool(ArrayList<Expression> conds, Expression z, boolean must_eval_expr, int[] used_digs) {
+            super(conds, z, must_eval_expr);
+            int[] pos = new int[input_count];           // the generator position of each input digit (-1 if none)
+            Arrays.fill(pos, -1);
+            for (int k = 0; k < used_digs.length; k ++) {
+                pos[used_digs[k]] = k;
+            }
+            int ranges = cond_end.length + 1;
+            int[] old_level = new int[size];
+            for (int r = 0; r < ranges; r ++) {
+                for (int n = range_start(r); n < range_end(r); n ++) {
+                    if (kinds[n] == P_CONST) {
+                        old_level[n] = -1;
+                    } else if (kinds[n] == P_DIGIT) {
+                        old_level[n] = digit_level((int)imm[n], r, pos, old_level);
+                    } else {
+                        old_level[n] = Math.max(old_level[left[n]], old_level[right[n]]);
+                    }
+                }
+            }
+            // Sort the nodes of each range by level (keeping the order of the nodes with the same level) and
+            // renumber them
+            Integer[] order = new Integer[size];
+            for (int n = 0; n < size; n ++) {
+                order[n] = n;
+            }
+            int[] renumbered = new int[size];
+            suffix = new int[ranges][used_digs.length + 1];
+            for (int r = 0; r < ranges; r ++) {
+                int start = range_start(r), end = range_end(r);
+                Arrays.sort(order, start, end, (a, b) -> Integer.compare(old_level[a], old_level[b]));
+                for (int n = start; n < end; n ++) {
+                    renumbered[order[n]] = n;
+                }
+                for (int p = 0; p <= used_digs.length; p ++) {
+                    int first = start;
+                    while (first < end && old_level[order[first]] < p) {
+                        first ++;
+                    }
+                    suffix[r][p] = first;
+                }
+            }
+            byte[] new_kinds = new byte[size];
+            int[] new_left = new int[size], new_right = new int[size];
+            long[] new_imm = new long[size];
+            level = new int[size];
+            for (int n = 0; n < size; n ++) {
+                int o = order[n];
+                new_kinds[n] = kinds[o];
+                new_left[n] = left[o] == -1 ? -1 : renumbered[left[o]];
+                new_right[n] = right[o] == -1 ? -1 : renumbered[right[o]];
+                new_imm[n] = imm[o];
+                level[n] = old_level[o];
+            }
+            kinds = new_kinds;
+            left = new_left;
+            right = new_right;
+            imm = new_imm;
+            for (int c = 0; c < cond_node.length; c ++) {
+                cond_node[c] = renumbered[cond_node[c]];
+            }
+            if (z_node != -1) {
+                z_node = renumbered[z_node];
+            }
+        }
+
+        private int range_start(int r) {
+            return r == 0 ? 0 : cond_end[r - 1];
+        }
+
+        private int range_end(int r) {
+            return r < cond_end.length ? cond_end[r] : size;
+        }
+
+        // Return the level of the value of digit "d" in range "r". A generator digit gets its value from the generator,
+        // but the conditions before the range can change it. A digit that is neither from the generator nor set by an
+        // earlier condition keeps a value from a previous candidate, so it must always be loaded again.
+        private int digit_level(int d, int r, int[] pos, int[] levels) {
+            int res = pos[d];
+            boolean known = pos[d] != -1;
+            for (int c = 0; c < r; c ++) {
+                if (cond_digit[c] == d) {
+                    res = Math.max(res, levels[cond_node[c]]);
+                    known = true;
+                }
+            }
+            return known ? res : ALWAYS;
+        }
+
+        // The state of the evaluation for a sequence of candidates (used by a single thread)
+        class State {
+            public long[] vals = new long[size];        // the value of each node
+            public int valid_end = 0;                   // the nodes before this one were evaluated for the last
+                                                        // candidate
+            public long evaluated = 0;                  // number of nodes evaluated
+        }
+
+        // Check the digits of a candidate for which the generator changed the positions from "changed" on, given the
+        // state of the evaluation of the previous candidate
+        public int check_from(State st, int[] digits, int changed) {
+            long[] vals = st.vals;
+            int ranges = cond_end.length + 1;
+            for (int r = 0; r < ranges; r ++) {
+                int end = range_end(r);
+                if (r == cond_end.length && z_node == -1) {
+                    break;
+                }
+                int first = end <= st.valid_end ? suffix[r][changed] : range_start(r);
+                eval(vals, digits, first, end);
+                st.evaluated += end - first;
+                if (r < cond_end.length) {
+                    int v = (int)vals[cond_node[r]];
+                    if (v <= 0 || v > 9) { // invalid digit
+                        st.valid_end = end;
+                        return BAD_CONDITION;
+                    }
+                    digits[cond_digit[r]] = v;
+                }
+            }
+            st.valid_end = size;
+            return z_node == -1 || vals[z_node] == 0 ? ACCEPTED : BAD_Z;
+        }
+    }
+
+    // The node pool evaluated on a block of LANES candidates at a time. The values are stored by node and then by lane
+    // (struct of arrays), so each node is evaluated by a loop over the lanes that does the same operation on
+    // consecutive array elements: the JIT turns these loops into SIMD instructions where the CPU has them (this
+    // doesn't need the incubating Vector API, which would need extra command line options). After each condition,
+    // the lanes with an invalid digit are dropped (by compacting the lanes that are still alive to the start of the
+    // block), so the next conditions only run on the candidates that can still be accepted. check() (inherited) is
+    // the scalar fallback.
+
+    class LaneChecker extends NodePool {
+        static final int LANES = 256;                   // number of candidates evaluated together
+
+        private int[][] live;                           // nodes of the previous ranges used after each condition
+
+        public LaneChecker(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) {
+            super(conds, z, must_eval_expr);
+            // The values of the non-constant nodes used by later ranges must follow the lanes when they are compacted
+            live = new int[cond_end.length][];
+            for (int c = 0; c < cond_end.length; c ++) {
+                TreeSet<Integer> used = new TreeSet<>();
+                for (int n = cond_end[c]; n < size; n ++) {
+                    if (kinds[n] >= P_ADD) {
+                        for (int op: new int[] {left[n], right[n]}) {
+                            if (op < cond_end[c] && kinds[op] != P_CONST) {
+                                used.add(op);
+                            }
+                        }
+                    }
+                }
+                live[c] = used.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        // Return a new block for this checker (one for each thread). The constant nodes never change, so they are
+        // set for all the lanes here.
+        public LaneBlock new_block() {
+            LaneBlock b = new LaneBlock(size, input_count);
+            for (int n = 0; n < size; n ++) {
+                if (kinds[n] == P_CONST) {
+                    Arrays.fill(b.vals, n * LANES, (n + 1) * LANES, imm[n]);
+                }
+            }
+            return b;
+        }
+
+        // Evaluate the nodes from "from" (inclusive) to "to" (exclusive) on the first "count" lanes of the block
+        private void eval_lanes(LaneBlock b, int from, int to, int count) {
+            long[] vals = b.vals;
+            for (int n = from; n < to; n ++) {
+                int o = n * LANES, l = left[n] * LANES, r = right[n] * LANES;
+                switch (kinds[n]) {
+                    case P_CONST:
+                        break;
+                    case P_DIGIT: {
+                        int[] col = b.digits[(int)imm[n]];
+                        int[] lane = b.lane;
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = col[lane[i]];
+                        }
+                        break;
+                    }
+                    case P_ADD:
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = vals[l + i] + vals[r + i];
+                        }
+                        break;
+                    case P_SUB:
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = vals[l + i] - vals[r + i];
+                        }
+                        break;
+                    case P_MUL:
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = vals[l + i] * vals[r + i];
+                        }
+                        break;
+                    case P_DIV:
+                    case P_MOD:
+                        if (kinds[right[n]] == P_CONST) { // the usual case: a loop invariant divisor
+                            long k = imm[right[n]];
+                            if (kinds[n] == P_DIV) {
+                                for (int i = 0; i < count; i ++) {
+                                    vals[o + i] = vals[l + i] / k;
+                                }
+                            } else {
+                                for (int i = 0; i < count; i ++) {
+                                    vals[o + i] = vals[l + i] % k;
+                                }
+                            }
+                        } else if (kinds[n] == P_DIV) {
+                            for (int i = 0; i < count; i ++) {
+                                vals[o + i] = vals[l + i] / vals[r + i];
+                            }
+                        } else {
+                            for (int i = 0; i < count; i ++) {
+                                vals[o + i] = vals[l + i] % vals[r + i];
+                            }
+                        }
+                        break;
+                    case P_EQL:
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = vals[l + i] == vals[r + i] ? 1 : 0;
+                        }
+                        break;
+                    default:
+                        for (int i = 0; i < count; i ++) {
+                            vals[o + i] = vals[l + i] != vals[r + i] ? 1 : 0;
+                        }
+                }
+            }
+        }
+
+        // Check the first "count" candidates of the block (with their digits in b.digits). Returns the number of
+        // accepted candidates, which are then the first lanes of the block (b.lane has their columns in b.digits).
+        // b.passed is set to the number of candidates that passed all the conditions.
+        public int check_block(LaneBlock b, int count) {
+            long[] vals = b.vals;
+            int[] lane = b.lane;
+            for (int i = 0; i < count; i ++) {
+                lane[i] = i;
+            }
+            int from = 0;
+            for (int c = 0; c < cond_node.length && count > 0; c ++) {
+                eval_lanes(b, from, cond_end[c], count);
+                from = cond_end[c];
+                // Store the digit of the lanes where it's valid and find out which lanes are still alive
+                int o = cond_node[c] * LANES, alive = 0;
+                int[] col = b.digits[cond_digit[c]];
+                for (int i = 0; i < count; i ++) {
+                    long v = vals[o + i];
+                    if (v > 0 && v <= 9) {
+                        col[lane[i]] = (int)v;
+                        b.keep[alive ++] = i;
+                    }
+                }
+                if (alive < count) { // compact the alive lanes
+                    compact(b, live[c], alive);
+                }
+                count = alive;
+            }
+            b.passed = count;
+            if (z_node == -1 || count == 0) {
+                return count;
+            }
+            eval_lanes(b, from, size, count);
+            int o = z_node * LANES, accepted = 0;
+            for (int i = 0; i < count; i ++) {
+                if (vals[o + i] == 0) {
+                    lane[accepted ++] = lane[i];
+                }
+            }
+            return accepted;
+        }
+
+        // Move the lanes in b.keep[0 .. alive) to the start of the block
+        private void compact(LaneBlock b, int[] rows, int alive) {
+            int[] keep = b.keep;
+            for (int i = 0; i < alive; i ++) {
+                b.lane[i] = b.lane[keep[i]];
+            }
+            for (int n: rows) {
+                int o = n * LANES;
+                for (int i = 0; i < alive; i ++) {
+                    b.vals[o + i] = b.vals[o + keep[i]];
+                }
+            }
+        }
+    }
+
+    // The state of a LaneChecker for a block of candidates (used by a single thread)
+    class LaneBlock {
+        public long[] vals;                             // the value of each node for each lane
+        public int[][] digits;                          // the digits of each candidate (by digit, then by candidate)
+        public int[] lane;                              // the candidate (column in "digits") of each lane
+        public int[] keep;                              // the lanes that are still alive after a condition
+        public int passed;                              // number of candidates that passed all the conditions
+
+        public LaneBlock(int nodes, int input_count) {
+            vals = new long[nodes * LaneChecker.LANES];
+            digits = new int[input_count][LaneChecker.LANES];
+            lane = new int[LaneChecker.LANES];
+            keep = new int[LaneChecker.LANES];
+        }
+    }
+
+    // Return the size of the CPU's vector registers that the JIT can use (in bytes), or 0 if it can't use any (or if
+    // this is unknown)
+    static int vector_bytes() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Integer.parseInt(bean.getVMOption("MaxVectorSize").getValue());
+        } catch (RuntimeException | LinkageError e) { // not HotSpot or not a C2 platform
+            return 0;
+        }
+    }
+
+    // Return the checker for the given conditions and final expression according to the evaluation mode
+    DigitChecker make_checker(ArrayList<Expression> conds, Expression z, boolean must_eval_expr, int[] used_digs) {
+        DigitChecker tree = new TreeChecker(conds, z, must_eval_expr);
+        if (eval_mode == EvalMode.TREE) {
+            return tree;
+        } else if (eval_mode == EvalMode.POOL) {
+            node_pool = new NodePool(conds, z, must_eval_expr);
+            return node_pool;
+        } else if (eval_mode == EvalMode.INCREMENTAL) {
+            node_pool = new IncrementalPool(conds, z, must_eval_expr, used_digs);
+            return node_pool;
+        } else if (eval_mode == EvalMode.LANES) {
+            // With vectors of a single long (or none), the lanes only add overhead, so use the scalar evaluator
+            int bytes = vector_bytes();
+            boolean simd = bytes >= 2 * Long.BYTES;
+            node_pool = simd ? new LaneChecker(conds, z, must_eval_expr) : new NodePool(conds, z, must_eval_expr);
+            lanes_info = simd ? String.format("blocks of %d candidates, %d byte vectors", LaneChecker.LANES, bytes)
+                : String.format("scalar fallback (vectors of %d bytes)", bytes);
+            return node_pool;
+        }
+        DigitChecker compiled = null;
+        try {
+            compiled = new CompiledChecker(conds, z, must_eval_expr);
+        } catch (Exception ex) {
+            System.err.println(String.format("Unable to compile the conditions (%s), using the tree evaluator", ex.getMessage()));
+            return tree;
+        }
+        if (eval_mode == EvalMode.COMPARE) {
+            node_pool = new NodePool(conds, z, must_eval_expr);
+            return new CompareChecker(new CompareChecker(tree, compiled), node_pool);
+        }
+        return compiled;
+    }
+
+    // ****************************************************************************************************************
+    // Searching for the input digits
+
+    // Check "count" consecutive inputs starting with the "start"-th one, using the given checker. "used_digs" are the
+    // indexes of the input digits set by the generator. Returns a (min, max) pair of the accepted numbers (the
+    // minimum is Long.MAX_VALUE and the maximum is 0 if no number was accepted).
+    long[] search_range(DigitChecker checker, int[] used_digs, long start, long count) {
+        if (checker instanceof LaneChecker) {
+            return search_range_lanes((LaneChecker)checker, used_digs, start, count);
+        }
+        Generator g = new Generator(used_digs.length, start);
+        int[] digs = new int[input_count];
+        long max_v = 0, min_v = Long.MAX_VALUE;
+        long bad_conditions = 0, bad_z = 0;
+        IncrementalPool inc = checker instanceof IncrementalPool ? (IncrementalPool)checker : null;
+        IncrementalPool.State st = inc == null ? null : inc.new State();
+        for (long n = 0; n < count; n ++) {
+            // Get the current digits from iterator
+            int[] i_digs = g.next();
+            // Map the iterator digits to the input digits array
+            for (int k = 0; k < used_digs.length; k ++) {
+                digs[used_digs[k]] = i_digs[k];
+            }
+            // Check the conditions and the expression
+            int status = inc != null ? inc.check_from(st, digs, g.changed) : checker.check(digs);
+            if (status != DigitChecker.ACCEPTED) {
+                if (status == DigitChecker.BAD_CONDITION) {
+                    bad_conditions ++;
+                } else {
+                    bad_z ++;
+                }
+                continue;
+            }
+            // We found a solution!
+            long temp = arr2long(digs);
+            if (min_v > temp) {
+                min_v = temp;
+            }
+            if (max_v < temp) {
+                max_v = temp;
+            }
+        }
+        // Update the counters once per range, so the threads don't compete for them in the loop
+        if (st != null) {
+            incremental_nodes.add(st.evaluated);
+        }
+        candidates.add(count);
+        candidates_bad_condition.add(bad_conditions);
+        candidates_bad_z.add(bad_z);
+        return new long[] {min_v, max_v};
+    }
+
+    // Same as search_range, but the candidates are checked in blocks of LaneChecker.LANES
+    long[] search_range_lanes(LaneChecker checker, int[] used_digs, long start, long count) {
+        Generator g = new Generator(used_digs.length, start);
+        LaneBlock b = checker.new_block();
+        int[] digs = new int[input_count];
+        long max_v = 0, min_v = Long.MAX_VALUE;
+        long bad_conditions = 0, bad_z = 0;
+        for (long n = 0; n < count; ) {
+            // Fill the block with the next candidates
+            int block = (int)Math.min(LaneChecker.LANES, count - n);
+            for (int i = 0; i < block; i ++) {
+                int[] i_digs = g.next();
+                for (int k = 0; k < used_digs.length; k ++) {
+                    b.digits[used_digs[k]][i] = i_digs[k];
+                }
+            }
+            n += block;
+            int accepted = checker.check_block(b, block);
+            bad_conditions += block - b.passed;
+            bad_z += b.passed - accepted;
+            for (int i = 0; i < accepted; i ++) {
+                // We found a solution!
+                for (int d = 0; d < input_count; d ++) {
+                    digs[d] = b.digits[d][b.lane[i]];
+                }
+                long temp = arr2long(digs);
+                min_v = Math.min(min_v, temp);
+                max_v = Math.max(max_v, temp);
+            }
+        }
+        candidates.add(count);
+        candidates_bad_condition.add(bad_conditions);
+        candidates_bad_z.add(bad_z);
+        return new long[] {min_v, max_v};
+    }
+
+    // A range of inputs searched in parallel: the range is split in halves until it's small enough
+    class SearchTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private DigitChecker checker;
+        private int[] used_digs;
+        private long start, count;                      // the range of inputs
+        private long threshold;                         // maximum size of a range that is searched directly
+
+        public SearchTask(DigitChecker checker, int[] used_digs, long start, long count, long threshold) {
+            this.checker = checker;
+            this.used_digs = used_digs;
+            this.start = start;
+            this.count = count;
+            this.threshold = threshold;
+        }
+
+        protected long[] compute() {
+            if (count <= threshold) {
+                return search_range(checker, used_digs, start, count);
+            }
+            long half = count / 2;
+            SearchTask first = new SearchTask(checker, used_digs, start, half, threshold);
+            first.fork();
+            long[] second_res = new SearchTask(checker, used_digs, start + half, count - half, threshold).compute();
+            long[] first_res = first.join();
+            return new long[] {Math.min(first_res[0], second_res[0]), Math.max(first_res[1], second_res[1])};
+        }
+    }
+
+    // Search all the inputs in parallel on "threads" threads
+    long[] search_parallel(DigitChecker checker, int[] used_digs, long total) {
+        // Split in enough ranges to keep all the threads busy even if some ranges are faster than others
+        long threshold = Math.max(total / ((long)threads * 64), 1024);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new SearchTask(checker, used_digs, 0, total, threshold));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Depth-first search of the input digits in the order of their significance (branch and bound). A digit computed
+    // by a condition from more significant digits is not searched at all: it is computed (and checked) as soon as all
+    // the digits it depends on are known, so invalid branches are cut as early as possible. The other conditions are
+    // checked as soon as all their digits are known. Since the digits are tried in descending (ascending) order, the
+    // accepted numbers are found from the maximum (minimum) on. The search state is an explicit stack (the number of
+    // values tried for each position), so it can stop after any accepted number and continue later from there.
+    class OrderedSearch {
+        private int size;                               // number of input digits
+        private boolean[] is_forced;                    // true for the digits computed by a condition
+        private boolean[] is_free;                      // true for the digits that nothing depends on
+        private ArrayList<ArrayList<Expression>> derive;// conditions that compute a digit before searching each position
+        private ArrayList<ArrayList<Expression>> checks;// conditions to check after each digit is set
+        private Expression z;                           // the final expression
+        private int z_pos;                              // the position after which "z" is checked (-1 if never)
+
+        public OrderedSearch(int size, ArrayList<Expression> conds, Expression z, boolean must_eval_expr) {
+            this.size = size;
+            this.z = z;
+            is_forced = new boolean[size];
+            is_free = new boolean[size];
+            Arrays.fill(is_free, true);
+            derive = new ArrayList<>();
+            checks = new ArrayList<>();
+            for (int i = 0; i <= size; i ++) {
+                derive.add(new ArrayList<>());
+                checks.add(new ArrayList<>());
+            }
+            for (Expression c: conds) {
+                assert c.op == Operation.EQL;
+                int target = c.cond_digit().digit_no();
+                Expression other = c.cond_value();
+                TreeSet<Integer> deps = new TreeSet<>();
+                other._analyze_digits(deps);
+                int last = deps.isEmpty() ? -1 : deps.last();
+                if (last < target && !is_forced[target]) { // the digit can be computed from more significant digits
+                    is_forced[target] = true;
+                    derive.get(last + 1).add(c);
+                } else { // check the condition when all its digits are known
+                    checks.get(Math.max(last, target)).add(c);
+                }
+                deps.add(target);
+                for (int d: deps) {
+                    is_free[d] = false;
+                }
+            }
+            if (must_eval_expr) {
+                TreeSet<Integer> deps = new TreeSet<>();
+                z._analyze_digits(deps);
+                z_pos = deps.isEmpty() ? 0 : deps.last();
+                for (int d: deps) {
+                    is_free[d] = false;
+                }
+            } else {
+                z_pos = -1;
+            }
+        }
+
+        // The state of a search: the current digits and the number of values tried for each position
+        class Cursor implements PrimitiveIterator.OfLong {
+            private int[] digs;                         // current digits
+            private int[] tried;                        // number of values tried for each position
+            private int pos;                            // the position being searched (-1 when done)
+            private boolean descending;                 // true for the descending order, false for ascending
+            private boolean collapse_free;              // true to try a single value for the free digits
+            private boolean ready;                      // true if "digs" is an accepted number not returned yet
+
+            public Cursor(boolean descending, boolean collapse_free) {
+                this.descending = descending;
+                this.collapse_free = collapse_free;
+                digs = new int[size];
+                tried = new int[size];
+                pos = enter(0) ? 0 : -1;
+            }
+
+            // Start searching the position "p" (which can be "size"), return false if a derived digit is invalid
+            private boolean enter(int p) {
+                if (p < size) {
+                    tried[p] = 0;
+                }
+                return derive(p);
+            }
+
+            // Compute the digits that depend only on the digits before "p"
+            private boolean derive(int p) {
+                for (Expression c: derive.get(p)) {
+                    Expression dig = c.cond_digit();
+                    Expression other = c.cond_value();
+                    ordered_evaluations ++;
+                    int v = (int)other.eval_with_digits(digs);
+                    if (v <= 0 || v > 9) { // invalid digit
+                        return false;
+                    }
+                    digs[dig.digit_no()] = v;
+                }
+                return true;
+            }
+
+            // Check all the conditions that become decidable when the digit at "p" is set
+            private boolean check(int p) {
+                for (Expression c: checks.get(p)) {
+                    Expression dig = c.cond_digit();
+                    Expression other = c.cond_value();
+                    ordered_evaluations ++;
+                    if ((int)other.eval_with_digits(digs) != digs[dig.digit_no()]) {
+                        return false;
+                    }
+                }
+                if (p == z_pos) {
+                    ordered_evaluations ++;
+                    return z.eval_with_digits(digs) == 0;
+                }
+                return true;
+            }
+
+            // Move to the next accepted number, return false if there are no more
+            private boolean advance() {
+                if (pos == size) { // continue after the last accepted number
+                    pos --;
+                }
+                while (pos >= 0) {
+                    if (pos == size) {
+                        return true;
+                    }
+                    // The number of values that can be tried for this position
+                    int values = is_forced[pos] || (collapse_free && is_free[pos]) ? 1 : 9;
+                    if (tried[pos] == values) { // all tried, backtrack
+                        pos --;
+                        continue;
+                    }
+                    if (!is_forced[pos]) {
+                        digs[pos] = descending ? 9 - tried[pos] : tried[pos] + 1;
+                    }
+                    tried[pos] ++;
+                    if (check(pos) && enter(pos + 1)) {
+                        pos ++;
+                    }
+                }
+                return false;
+            }
+
+            public boolean hasNext() {
+                if (!ready) {
+                    ready = advance();
+                }
+                return ready;
+            }
+
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return arr2long(digs);
+            }
+        }
+
+        // Return the maximum (descending == true) or the minimum accepted number, or -1 if there isn't one
+        public long find(boolean descending) {
+            Cursor c = new Cursor(descending, false);
+            return c.hasNext() ? c.nextLong() : -1;
+        }
+
+        // Return the number of accepted numbers. Each free digit multiplies the count by 9, so they are not searched.
+        public long count() {
+            long free = 1;
+            for (int d = 0; d < size; d ++) {
+                if (is_free[d] && !is_forced[d]) {
+                    free *= 9;
+                }
+            }
+            long res = 0;
+            for (Cursor c = new Cursor(false, true); c.hasNext(); c.nextLong()) {
+                res += free;
+            }
+            return res;
+        }
+    }
+
+    // Find the minimum and maximum accepted numbers with an ordered search. Returns the same (min, max) pair as
+    // search_range.
+    long[] search_ordered(ArrayList<Expression> conds, Expression z, boolean must_eval_expr) {
+        OrderedSearch os = new OrderedSearch(input_count, conds, z, must_eval_expr);
+        long max_v = os.find(true);
+        long min_v = os.find(false);
+        return new long[] {min_v == -1 ? Long.MAX_VALUE : min_v, max_v == -1 ? 0 : max_v};
+    }
+
+    // Return the ordered search for the result of the symbolic engine (interpreting the program first if that wasn't
+    // done yet)
+    OrderedSearch accepted_search() throws SolveException {
+        String limitation = symbolic_limitation();
+        if (limitation != null) {
+            throw new SolveException(limitation);
+        }
+        if (all_results.isEmpty()) {
+            interpret_program();
+        }
+        Result r = single_result();
+        Limits l = r.z.get_limits();
+        return new OrderedSearch(input_count, r.conditions, r.z, l.min != 0 || l.max != 0);
+    }
+
+    // Return all the accepted numbers in ascending or descending order. The numbers are found lazily, as the stream
+    // is consumed, so a short-circuiting operation (such as limit() or findFirst()) stops the search.
+    LongStream accepted_numbers(boolean descending) throws SolveException {
+        OrderedSearch.Cursor c = accepted_search().new Cursor(descending, false);
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | (descending ? 0 : Spliterator.SORTED);
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(c, characteristics), false);
+    }
+
+    // Return the number of accepted numbers, without generating all of them
+    long count_accepted() throws SolveException {
+        return accepted_search().count();
+    }
+
+    // ****************************************************************************************************************
+    // Concrete ALU: runs the program on actual input digits. The instructions are decoded once into flat arrays with
+    // the operands resolved to register slots or immediates, so running the program is a tight loop without any
+    // string handling or allocation. The batches of model numbers are run LANES numbers at a time, with the registers
+    // stored by register and then by number: each instruction is decoded once for the whole block and applied by a
+    // simple loop (the same layout as LaneChecker), and the divisions by an immediate use a multiplication by a
+    // precomputed magic number instead of a (slow) division instruction. Programs that are small enough can also be
+    // compiled to a Java class (with the registers in local variables), which is faster still.
+
+    class Alu {
+        private int[] code;                             // (opcode, destination slot, source slot) per instruction
+        private long[] imms;                            // immediate source value of each instruction
+        private long[] magic;                           // magic multiplier of the DIV_I and MOD_I by 2 or more
+        private int[] shift;                            // shift after the multiplication by "magic"
+        private int digits;                             // number of input digits read by the program
+        private ArrayList<Instruction> instructions;    // the program
+        private ToLongFunction<int[]> compiled;         // compiled program (null if not compiled)
+
+        // Maximum number of instructions in a compiled program (larger methods are not compiled by the JIT)
+        static final int MAX_COMPILED_INSTRUCTIONS = 1000;
+        static final int LANES = 256;                   // number of model numbers run together by run_lanes
+
+        // Opcodes: the operation and the kind of source operand are combined in a single opcode
+        static final int OP_INP = 0, OP_ADD = 1, OP_ADD_I = 2, OP_SUB = 3, OP_SUB_I = 4, OP_MUL = 5, OP_MUL_I = 6;
+        static final int OP_DIV = 7, OP_DIV_I = 8, OP_MOD = 9, OP_MOD_I = 10, OP_EQL = 11, OP_EQL_I = 12, OP_NEQ = 13;
+        static final int OP_NEQ_I = 14;
+
+        public Alu(ArrayList<Instruction> instructions) {
+            this.instructions = instructions;
+            compiled = null;
+            int size = instructions.size();
+            code = new int[size * 3];
+            imms = new long[size];
+            magic = new long[size];
+            shift = new int[size];
+            digits = 0;
+            for (int idx = 0; idx < size; idx ++) {
+                Instruction i = instructions.get(idx);
+                boolean imm = i.op != Operation.INP && i.src_is_num;
+                code[idx * 3] = i.op == Operation.INP ? OP_INP : i.op.ordinal() * 2 - 1 + (imm ? 1 : 0);
+                code[idx * 3 + 1] = i.dest_reg;
+                code[idx * 3 + 2] = i.op == Operation.INP || imm ? 0 : i.src_reg;
+                imms[idx] = i.src_num;
+                if ((code[idx * 3] == OP_DIV_I || code[idx * 3] == OP_MOD_I) && imms[idx] >= 2) {
+                    long[] m = div_magic(imms[idx]);
+                    magic[idx] = m[0];
+                    shift[idx] = (int)m[1];
+                }
+                if (i.op == Operation.INP) {
+                    digits ++;
+                }
+            }
+        }
+
+        // Run the program on the given digits (in "input"), using "regs" for the registers. Returns the value of "z".
+        public long run(int[] input, long[] regs) {
+            regs[0] = regs[1] = regs[2] = regs[3] = 0;
+            run_range(0, imms.length, input, 0, regs);
+            return regs[3];
+        }
+
+        // Run the instructions from "from" (inclusive) to "to" (exclusive) on the registers in "regs". The INP
+        // instructions read "input" starting at "input_index".
+        public void run_range(int from, int to, int[] input, int input_index, long[] regs) {
+            int[] code = this.code;
+            long[] imms = this.imms;
+            for (int idx = from, pc = from * 3; idx < to; idx ++, pc += 3) {
+                int d = code[pc + 1];
+                long a = regs[d];
+                switch (code[pc]) {
+                    case OP_INP:
+                        a = input[input_index ++];
+                        break;
+                    case OP_ADD:
+                        a += regs[code[pc + 2]];
+                        break;
+                    case OP_ADD_I:
+                        a += imms[idx];
+                        break;
+                    case OP_SUB:
+                        a -= regs[code[pc + 2]];
+                        break;
+                    case OP_SUB_I:
+                        a -= imms[idx];
+                        break;
+                    case OP_MUL:
+                        a *= regs[code[pc + 2]];
+                        break;
+                    case OP_MUL_I:
+                        a *= imms[idx];
+                        break;
+                    case OP_DIV:
+                        a /= regs[code[pc + 2]];
+                        break;
+                    case OP_DIV_I:
+                        a /= imms[idx];
+                        break;
+                    case OP_MOD:
+                        a %= regs[code[pc + 2]];
+                        break;
+                    case OP_MOD_I:
+                        a %= imms[idx];
+                        break;
+                    case OP_EQL:
+                        a = a == regs[code[pc + 2]] ? 1 : 0;
+                        break;
+                    case OP_EQL_I:
+                        a = a == imms[idx] ? 1 : 0;
+                        break;
+                    case OP_NEQ:
+                        a = a != regs[code[pc + 2]] ? 1 : 0;
+                        break;
+                    default: // OP_NEQ_I
+                        a = a != imms[idx] ? 1 : 0;
+                }
+                regs[d] = a;
+            }
+        }
+
+        // Run the program on "count" (at most LANES) inputs at a time: input[k][l] is the digit k of the input l,
+        // and regs[r][l] is set to the final value of the register r for the input l. Throws ArithmeticException if
+        // any of the inputs divides by 0.
+        private void run_lanes(int[][] input, int count, long[][] regs) {
+            int[] code = this.code;
+            long[] imms = this.imms;
+            int input_index = 0;
+            for (long[] r: regs) {
+                Arrays.fill(r, 0, count, 0);
+            }
+            for (int idx = 0, pc = 0; idx < imms.length; idx ++, pc += 3) {
+                long[] a = regs[code[pc + 1]], b = regs[code[pc + 2]];
+                long v = imms[idx], m = magic[idx];
+                int s = shift[idx];
+                switch (code[pc]) {
+                    case OP_INP:
+                        int[] digit = input[input_index ++];
+                        for (int l = 0; l < count; l ++) {
+                            a[l] = digit[l];
+                        }
+                        break;
+                    case OP_ADD:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] += b[l];
+                        }
+                        break;
+                    case OP_ADD_I:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] += v;
+                        }
+                        break;
+                    case OP_SUB:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] -= b[l];
+                        }
+                        break;
+                    case OP_SUB_I:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] -= v;
+                        }
+                        break;
+                    case OP_MUL:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] *= b[l];
+                        }
+                        break;
+                    case OP_MUL_I:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] *= v;
+                        }
+                        break;
+                    case OP_DIV:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] /= b[l];
+                        }
+                        break;
+                    case OP_DIV_I:
+                        if (v >= 2) {
+                            for (int l = 0; l < count; l ++) {
+                                a[l] = magic_div(a[l], m, s);
+                            }
+                        } else if (v != 1) { // dividing by 1 changes nothing
+                            for (int l = 0; l < count; l ++) {
+                                a[l] /= v;
+                            }
+                        }
+                        break;
+                    case OP_MOD:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] %= b[l];
+                        }
+                        break;
+                    case OP_MOD_I:
+                        if (v >= 2) {
+                            for (int l = 0; l < count; l ++) {
+                                a[l] -= magic_div(a[l], m, s) * v;
+                            }
+                        } else {
+                            for (int l = 0; l < count; l ++) {
+                                a[l] %= v;
+                            }
+                        }
+                        break;
+                    case OP_EQL:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] = a[l] == b[l] ? 1 : 0;
+                        }
+                        break;
+                    case OP_EQL_I:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] = a[l] == v ? 1 : 0;
+                        }
+                        break;
+                    case OP_NEQ:
+                        for (int l = 0; l < count; l ++) {
+                            a[l] = a[l] != b[l] ? 1 : 0;
+                        }
+                        break;
+                    default: // OP_NEQ_I
+                        for (int l = 0; l < count; l ++) {
+                            a[l] = a[l] != v ? 1 : 0;
+                        }
+                }
+            }
+        }
+
+        // Compile the program to a Java class, return false if that's not possible
+        @SuppressWarnings("unchecked")
+        public boolean compile() {
+            if (instructions.size() > MAX_COMPILED_INSTRUCTIONS) {
+                return false;
+            }
+            StringBuilder code = new StringBuilder();
+            int input_index = 0;
+            for (Instruction i: instructions) {
+                String src = i.op == Operation.INP ? null : (i.src_is_num ? i.src_num + "L" : i.src);
+                switch (i.op) {
+                    case INP:
+                        code.append(String.format("        %s = d[%d];\n", i.dest, input_index ++));
+                        break;
+                    case EQL:
+                    case NEQ:
+                        code.append(String.format("        %s = %s %s %s ? 1L : 0L;\n", i.dest, i.dest, i.op.toString(), src));
+                        break;
+                    default:
+                        code.append(String.format("        %s %s= %s;\n", i.dest, i.op.toString(), src));
+                }
+            }
+            String class_name = "Day24Alu";
+            String text = "public final class " + class_name + " implements java.util.function.ToLongFunction<int[]> {\n" +
+                "    public long applyAsLong(int[] d) {\n        long w = 0, x = 0, y = 0, z = 0;\n" + code.toString() +
+                "        return z;\n    }\n}\n";
+            try {
+                compiled = (ToLongFunction<int[]>)new JavaSourceCompiler().instantiate(class_name, text);
+            } catch (Exception e) {
+                return false;
+            }
+            return true;
+        }
+
+        // Run the program with the compiled code if available, otherwise with the interpreter
+        private long exec(int[] input, long[] regs) {
+            return compiled != null ? compiled.applyAsLong(input) : run(input, regs);
+        }
+
+        // Split a model number into its digits. Returns false if the number has an invalid digit (0) or too many digits.
+        private boolean split(long model, int[] input) {
+            for (int i = digits - 1; i >= 0; i --) {
+                input[i] = (int)(model % 10);
+                if (input[i] == 0) {
+                    return false;
+                }
+                model /= 10;
+            }
+            return model == 0;
+        }
+
+        // Return the value of "z" after running the program with the given model number (which must be valid)
+        public long run(long model) {
+            int[] input = new int[digits];
+            boolean ok = split(model, input);
+            assert ok;
+            return exec(input, new long[REGISTERS.length()]);
+        }
+
+        // Check a model number given as a string of digits (of any length)
+        public boolean validate(String model) {
+            if (model.length() != digits) {
+                return false;
+            }
+            int[] input = new int[digits];
+            for (int i = 0; i < digits; i ++) {
+                input[i] = model.charAt(i) - '0';
+                if (input[i] <= 0 || input[i] > 9) {
+                    return false;
+                }
+            }
+            return exec(input, new long[REGISTERS.length()]) == 0;
+        }
+
+        // Run the program with each of the given model numbers and store the values of "z" in "res". "valid" is set to
+        // whether each number is a valid model number; the program isn't run on the invalid ones (their "z" is 0).
+        private void exec_batch(long[] models, long[] res, boolean[] valid) {
+            int[] input = new int[digits];
+            long[] regs = new long[REGISTERS.length()];
+            if (compiled != null) {
+                for (int i = 0; i < models.length; i ++) {
+                    valid[i] = split(models[i], input);
+                    res[i] = valid[i] ? exec(input, regs) : 0;
+                }
+                return;
+            }
+            int[][] lane_input = new int[digits][LANES];
+            long[][] lane_regs = new long[REGISTERS.length()][LANES];
+            for (int start = 0; start < models.length; start += LANES) {
+                int count = Math.min(LANES, models.length - start);
+                for (int l = 0; l < count; l ++) {
+                    valid[start + l] = split(models[start + l], input);
+                    for (int k = 0; k < digits; k ++) {
+                        lane_input[k][l] = valid[start + l] ? input[k] : 1; // any valid digit, the result is dropped
+                    }
+                }
+                try {
+                    run_lanes(lane_input, count, lane_regs);
+                    for (int l = 0; l < count; l ++) {
+                        res[start + l] = valid[start + l] ? lane_regs[3][l] : 0;
+                    }
+                } catch (ArithmeticException e) { // run the block one number at a time, to fail on the right one
+                    for (int l = 0; l < count; l ++) {
+                        res[start + l] = 0;
+                        if (valid[start + l]) {
+                            for (int k = 0; k < digits; k ++) {
+                                input[k] = lane_input[k][l];
+                            }
+                            res[start + l] = run(input, regs);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Return the values of "z" after running the program with each of the given model numbers (which must be valid)
+        public long[] run_batch(long[] models) {
+            long[] res = new long[models.length];
+            boolean[] valid = new boolean[models.length];
+            exec_batch(models, res, valid);
+            for (boolean ok: valid) {
+                assert ok;
+            }
+            return res;
+        }
+
+        // Check each of the given model numbers: a number is valid if all its digits are non-zero and "z" is 0 after
+        // running the program
+        public boolean[] validate_batch(long[] models) {
+            long[] z = new long[models.length];
+            boolean[] res = new boolean[models.length];
+            exec_batch(models, z, res);
+            for (int i = 0; i < models.length; i ++) {
+                res[i] = res[i] && z[i] == 0;
+            }
+            return res;
+        }
+    }
+
+    // Measure the throughput of the concrete ALU on "count" random model numbers, both interpreted and compiled
+    void bench_alu(String fname, int count) throws IOException {
+        read_input(fname);
+        Random r = new Random(24);
+        long[] models = new long[count];
+        for (int i = 0; i < count; i ++) {
+            for (int k = 0; k < input_count; k ++) {
+                models[i] = models[i] * 10 + 1 + r.nextInt(9);
+            }
+        }
+        Alu alu = new Alu(instructions);
+        for (int pass = 0; pass < 2; pass ++) {
+            if (pass == 1 && !alu.compile()) {
+                System.out.println("ALU: unable to compile the program");
+                break;
+            }
+            // Warm up, then measure
+            for (int iter = 0; iter < 3; iter ++) {
+                alu.validate_batch(models);
+            }
+            int rounds = 5, accepted = 0;
+            long start = System.nanoTime();
+            for (int iter = 0; iter < rounds; iter ++) {
+                for (boolean b: alu.validate_batch(models)) {
+                    accepted += b ? 1 : 0;
+                }
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("ALU (%s): %d validations in %.3f s, %.2f M validations/s (%d accepted)",
+                pass == 0 ? "interpreted" : "compiled", (long)rounds * count, secs, rounds * count / secs / 1e6, accepted));
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Block structure analyzer. The puzzle programs are made of one block per input digit, all with the same
+    // instructions except for three constants A, B and C:
+    //
+    //   inp w      mul x 0    add x z    mod x K    div z A    add x B    eql x w    eql x 0    mul y 0
+    //   add y K-1  mul y x    add y 1    mul z y    mul y 0    add y w    add y C    mul y x    add z y
+    //
+    // which means: x = (z % K + B) != w; z = z / A; if x: z = z * K + w + C. "z" is a stack of base K numbers: a block
+    // with A == 1 pushes w + C (its B is too large for x to ever be 0), a block with A == K pops the top value t and
+    // pushes w + C again unless w == t + B. Since there are as many pops as pushes, z is 0 at the end only if every pop
+    // block matches its pushed value, which gives a linear relation between each pair of digits. The relations are
+    // solved directly, in O(blocks).
+
+    class BlockAnalyzer {
+        private ArrayList<Instruction> instructions;    // the program
+        public String reason;                           // why the program didn't match the template (if it didn't)
+
+        // The block constants in the template (K1 is K - 1, it's checked instead of stored)
+        private static final int K = 0, A = 1, B = 2, C = 3, K1 = 4;
+
+        // An instruction of the template. Its source is a register, a number or (if "constant" is not -1) one of the
+        // block constants.
+        class Step {
+            public Operation op;
+            public int dest_reg;
+            public int src_reg;                         // register slot of the source (-1 if it's not a register)
+            public long src_num;
+            public int constant;                        // the block constant used as the source (-1 if none)
+
+            public Step(Operation op, char dest, char src_reg, long src_num, int constant) {
+                this.op = op;
+                this.dest_reg = reg_index(String.valueOf(dest));
+                this.src_reg = src_reg == 0 ? -1 : reg_index(String.valueOf(src_reg));
+                this.src_num = src_num;
+                this.constant = constant;
+            }
+
+            // Return true if "i" matches this step, storing the value of a block constant in "consts"
+            public boolean match(Instruction i, long[] consts) {
+                if (i.op != op || i.dest_reg != dest_reg) {
+                    return false;
+                } else if (op == Operation.INP) {
+                    return true;
+                } else if (src_reg != -1) {
+                    return !i.src_is_num && i.src_reg == src_reg;
+                } else if (!i.src_is_num) {
+                    return false;
+                } else if (constant == -1) {
+                    return i.src_num == src_num;
+                } else if (constant == K1) {
+                    return i.src_num == consts[K] - 1;
+                }
+                consts[constant] = i.src_num;
+                return true;
+            }
+        }
+
+        private Step inp(char dest) {
+            return new Step(Operation.INP, dest, (char)0, 0, -1);
+        }
+
+        private Step reg(Operation op, char dest, char src) {
+            return new Step(op, dest, src, 0, -1);
+        }
+
+        private Step num(Operation op, char dest, long src) {
+            return new Step(op, dest, (char)0, src, -1);
+        }
+
+        private Step constant(Operation op, char dest, int constant) {
+            return new Step(op, dest, (char)0, 0, constant);
+        }
+
+        // The template (in the normalized form, see normalize())
+        private final Step[] TEMPLATE = {inp('w'), num(Operation.MUL, 'x', 0), reg(Operation.ADD, 'x', 'z'),
+            constant(Operation.MOD, 'x', K), constant(Operation.DIV, 'z', A), constant(Operation.ADD, 'x', B),
+            reg(Operation.NEQ, 'x', 'w'), num(Operation.MUL, 'y', 0), constant(Operation.ADD, 'y', K1),
+            reg(Operation.MUL, 'y', 'x'), num(Operation.ADD, 'y', 1), reg(Operation.MUL, 'z', 'y'),
+            num(Operation.MUL, 'y', 0), reg(Operation.ADD, 'y', 'w'), constant(Operation.ADD, 'y', C),
+            reg(Operation.MUL, 'y', 'x'), reg(Operation.ADD, 'z', 'y')};
+
+        public BlockAnalyzer(ArrayList<Instruction> instructions) {
+            this.instructions = instructions;
+        }
+
+        // Return the instructions in a canonical form ("sub r n" => "add r -n", "eql a b" + "eql a 0" => "neq a b")
+        private ArrayList<Instruction> normalize() {
+            ArrayList<Instruction> res = new ArrayList<>();
+            for (int idx = 0; idx < instructions.size(); idx ++) {
+                Instruction i = instructions.get(idx);
+                Instruction next = idx + 1 < instructions.size() ? instructions.get(idx + 1) : null;
+                if (i.op == Operation.SUB && i.src_is_num) {
+                    res.add(new Instruction(Operation.ADD, i.dest_reg, -1, -i.src_num));
+                } else if (i.op == Operation.EQL && next != null && next.op == Operation.EQL && next.dest_reg == i.dest_reg && next.src_is_num && next.src_num == 0) {
+                    res.add(new Instruction(Operation.NEQ, i.dest_reg, i.src_reg, i.src_num));
+                    idx ++;
+                } else {
+                    res.add(i);
+                }
+            }
+            return res;
+        }
+
+        // Match the block that starts at "start" and return its constants (K, A, B, C), or null if it doesn't match
+        private long[] match_block(ArrayList<Instruction> prog, int start) {
+            long[] consts = new long[4];
+            for (int k = 0; k < TEMPLATE.length; k ++) {
+                if (!TEMPLATE[k].match(prog.get(start + k), consts)) {
+                    return null;
+                }
+            }
+            return consts;
+        }
+
+        // Solve the program, return null if it doesn't match the template
+        public Answer solve() {
+            ArrayList<Instruction> prog = normalize();
+            if (prog.size() % TEMPLATE.length != 0) {
+                reason = "the program is not made of template blocks";
+                return null;
+            }
+            int blocks = prog.size() / TEMPLATE.length;
+            int[] pair = new int[blocks];                   // the push block of each pop block (-1 for push blocks)
+            long[] diff = new long[blocks];                 // digit[pop] = digit[push] + diff[pop]
+            long[][] consts = new long[blocks][];
+            Deque<Integer> stack = new ArrayDeque<>();
+            for (int b = 0; b < blocks; b ++) {
+                long[] c = match_block(prog, b * TEMPLATE.length);
+                if (c == null) {
+                    reason = String.format("block %d doesn't match the template", b);
+                    return null;
+                }
+                consts[b] = c;
+                long k = c[0], a = c[1], bb = c[2], cc = c[3];
+                if (k <= 1 || k != consts[0][0]) {
+                    reason = String.format("block %d has an invalid base", b);
+                    return null;
+                }
+                // The pushed value (w + C) must be a valid base K digit
+                if (cc < 0 || cc + 9 >= k) {
+                    reason = String.format("block %d pushes values outside the base", b);
+                    return null;
+                }
+                if (a == 1) { // push block: x must always be 1
+                    if (bb <= 9 && bb + k - 1 >= 1) {
+                        reason = String.format("push block %d may not push", b);
+                        return null;
+                    }
+                    pair[b] = -1;
+                    stack.push(b);
+                } else if (a == k) { // pop block
+                    if (stack.isEmpty()) {
+                        reason = String.format("block %d pops from an empty stack", b);
+                        return null;
+                    }
+                    int j = stack.pop();
+                    pair[b] = j;
+                    diff[b] = consts[j][3] + bb;
+                } else {
+                    reason = String.format("block %d has an invalid divisor", b);
+                    return null;
+                }
+            }
+            if (!stack.isEmpty()) { // more pushes than pops, so "z" can never be 0 at the end
+                return new Answer(null, null);
+            }
+            char[] max = new char[blocks], min = new char[blocks];
+            for (int b = 0; b < blocks; b ++) {
+                if (pair[b] == -1) {
+                    continue;
+                }
+                int j = pair[b];
+                long d = diff[b];
+                if (d >= 9 || d <= -9) { // the pop digit can never match the push digit
+                    return new Answer(null, null);
+                }
+                max[j] = (char)('0' + Math.min(9, 9 - d));
+                max[b] = (char)(max[j] + d);
+                min[j] = (char)('0' + Math.max(1, 1 - d));
+                min[b] = (char)(min[j] + d);
+            }
+            return new Answer(new String(max), new String(min));
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Open addressing hash map from long keys to int values, without boxing
+
+    static class LongIntMap {
+        private long[] keys;
+        private int[] values;                           // -1 marks an empty slot
+        private int size;
+
+        public LongIntMap(int capacity) {
+            int cap = 16;
+            while (cap < capacity * 2) {
+                cap <<= 1;
+            }
+            keys = new long[cap];
+            values = new int[cap];
+            Arrays.fill(values, -1);
+            size = 0;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int mask = keys.length - 1;
+            int i = (int)(h ^ (h >>> 32)) & mask;
+            while (values[i] != -1 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        // Return the value of "key", or -1 if not found
+        public int get(long key) {
+            return values[slot(key)];
+        }
+
+        // Set the value of "key" (value must be >= 0)
+        public void put(long key, int value) {
+            int i = slot(key);
+            if (values[i] == -1) {
+                size ++;
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (size * 2 > keys.length) { // grow
+                long[] old_keys = keys;
+                int[] old_values = values;
+                keys = new long[old_keys.length * 2];
+                values = new int[old_values.length * 2];
+                Arrays.fill(values, -1);
+                for (int k = 0; k < old_keys.length; k ++) {
+                    if (old_values[k] != -1) {
+                        int j = slot(old_keys[k]);
+                        keys[j] = old_keys[k];
+                        values[j] = old_values[k];
+                    }
+                }
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Approximate memory used by this map
+        public long bytes() {
+            return keys.length * 12L;
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Dynamic programming engine. The program is split into blocks that start with an INP instruction. If "z" is the
+    // only register that is live between blocks, the state of the ALU at the start of a block is just the value of
+    // "z", so the engine runs each block for all the reachable "z" values and all the 9 digits, keeping for each new
+    // "z" value only the largest and the smallest digit prefix that reach it. To compare prefixes cheaply, the
+    // states of each layer are ranked by their best prefixes: a prefix is then identified by (rank of the previous
+    // state, digit). States that can't get back to 0 in the remaining blocks are dropped (see "bound" below).
+
+    class DpSolver {
+        private Alu alu;                                // the decoded program
+        private int[] block_start;                      // index of the INP instruction that starts each block
+        private int blocks;                             // number of blocks
+        private long[] bound;                           // a state "z" before block "b" can reach 0 only if z < bound[b]
+        private long[] init_regs;                       // registers before the first block
+        private long[][] entry_regs;                    // the values of the registers except "z" before each block
+        public String reason;                           // why the program can't be solved (if it can't)
+        public long max_states;                         // maximum number of states in a layer
+        public long total_states;                       // total number of states in all layers
+        private long state_limit;                       // the most states that the layer being built can have
+        // Memory used by each state of the layer being built: the arrays of the layer (with room to grow), its hash
+        // index and its ranks. A compacted layer needs only 10 bytes per state (2 ints and 2 bytes).
+        private static final long STATE_BYTES = 128;
+
+        // One layer of states: the states after a block, with the best prefixes that reach them
+        class Layer {
+            public int size;
+            public long[] zs;                           // "z" value of each state
+            public long[] max_key, min_key;             // the best prefixes, as (previous rank * 10 + digit)
+            public int[] max_parent, min_parent;        // index of the previous state for the best prefixes
+            public byte[] max_digit, min_digit;         // last digit of the best prefixes
+            public int[] max_rank, min_rank;            // the rank of each state according to its best prefixes
+
+            public Layer(int capacity) {
+                size = 0;
+                zs = new long[capacity];
+                max_key = new long[capacity];
+                min_key = new long[capacity];
+                max_parent = new int[capacity];
+                min_parent = new int[capacity];
+                max_digit = new byte[capacity];
+                min_digit = new byte[capacity];
+            }
+
+            // Add a new state or update the best prefixes of an existing one
+            public void update(LongIntMap index, long z, long mx_key, int mx_parent, long mn_key, int mn_parent) {
+                int i = index.get(z);
+                if (i == -1) {
+                    if (size == zs.length) {
+                        int cap = Math.max(16, size * 2);
+                        zs = Arrays.copyOf(zs, cap);
+                        max_key = Arrays.copyOf(max_key, cap);
+                        min_key = Arrays.copyOf(min_key, cap);
+                        max_parent = Arrays.copyOf(max_parent, cap);
+                        min_parent = Arrays.copyOf(min_parent, cap);
+                        max_digit = Arrays.copyOf(max_digit, cap);
+                        min_digit = Arrays.copyOf(min_digit, cap);
+                    }
+                    i = size ++;
+                    index.put(z, i);
+                    zs[i] = z;
+                    max_key[i] = mx_key;
+                    max_parent[i] = mx_parent;
+                    max_digit[i] = (byte)(mx_key % 10);
+                    min_key[i] = mn_key;
+                    min_parent[i] = mn_parent;
+                    min_digit[i] = (byte)(mn_key % 10);
+                } else {
+                    if (mx_key > max_key[i]) {
+                        max_key[i] = mx_key;
+                        max_parent[i] = mx_parent;
+                        max_digit[i] = (byte)(mx_key % 10);
+                    }
+                    if (mn_key < min_key[i]) {
+                        min_key[i] = mn_key;
+                        min_parent[i] = mn_parent;
+                        min_digit[i] = (byte)(mn_key % 10);
+                    }
+                }
+            }
+
+            // Compute the ranks of the states from their best prefix keys
+            public void rank() {
+                max_rank = ranks(max_key);
+                min_rank = ranks(min_key);
+            }
+
+            private int[] ranks(long[] keys) {
+                long[] sorted = Arrays.copyOf(keys, size);
+                Arrays.sort(sorted);
+                int[] res = new int[size];
+                for (int i = 0; i < size; i ++) {
+                    res[i] = Arrays.binarySearch(sorted, keys[i]);
+                }
+                return res;
+            }
+
+            // Drop the data that is not needed for rebuilding the answers
+            public void compact() {
+                zs = null;
+                max_key = min_key = null;
+                max_rank = min_rank = null;
+                max_parent = Arrays.copyOf(max_parent, size);
+                min_parent = Arrays.copyOf(min_parent, size);
+                max_digit = Arrays.copyOf(max_digit, size);
+                min_digit = Arrays.copyOf(min_digit, size);
+            }
+        }
+
+        public DpSolver(ArrayList<Instruction> instructions) {
+            alu = new Alu(instructions);
+            ArrayList<Integer> starts = new ArrayList<>();
+            for (int idx = 0; idx < instructions.size(); idx ++) {
+                if (instructions.get(idx).op == Operation.INP) {
+                    starts.add(idx);
+                }
+            }
+            blocks = starts.size();
+            block_start = new int[blocks + 1];
+            for (int b = 0; b < blocks; b ++) {
+                block_start[b] = starts.get(b);
+            }
+            block_start[blocks] = instructions.size();
+            // Run the instructions before the first block
+            init_regs = new long[REGISTERS.length()];
+            alu.run_range(0, blocks > 0 ? block_start[0] : instructions.size(), null, 0, init_regs);
+            // Apart from "z", a block can use only registers that have the same value at the end of every run of the
+            // previous block (for example registers cleared with "mul r 0")
+            reason = null;
+            entry_regs = new long[blocks][REGISTERS.length()];
+            int z = reg_index("z");
+            for (int b = 1; b < blocks && reason == null; b ++) {
+                int live = live_in(instructions, block_start[b], block_start[b + 1]);
+                Long[] consts = constants_out(instructions, block_start[b - 1], block_start[b]);
+                for (int r = 0; r < REGISTERS.length(); r ++) {
+                    if (r == z || (live & (1 << r)) == 0) {
+                        continue;
+                    } else if (consts[r] == null) {
+                        reason = String.format("block %d uses register %s from the previous block", b, REGISTERS.charAt(r));
+                    } else {
+                        entry_regs[b][r] = consts[r];
+                    }
+                }
+            }
+            compute_bounds(instructions);
+        }
+
+        // Return true if the instruction sets its destination register to 0 whatever its value ("mul r 0", "sub r r")
+        private boolean clears(Instruction i) {
+            return (i.op == Operation.MUL && i.src_is_num && i.src_num == 0) || (i.op == Operation.SUB && !i.src_is_num && i.src_reg == i.dest_reg);
+        }
+
+        // Return the registers (as a bit mask of slots) whose values at the start of the block between "from" and "to"
+        // can change the result of the block. This is a backward liveness analysis where the registers used by an
+        // instruction are live only if its result is (so "add y 0" before "mul y 0" doesn't make "y" live); divisions
+        // are always kept, since they can fail.
+        private int live_in(ArrayList<Instruction> instructions, int from, int to) {
+            int live = (1 << REGISTERS.length()) - 1;
+            for (int idx = to - 1; idx >= from; idx --) {
+                Instruction i = instructions.get(idx);
+                int d = 1 << i.dest_reg;
+                boolean can_fail = (i.op == Operation.DIV || i.op == Operation.MOD) && !i.src_is_num;
+                if ((live & d) == 0 && !can_fail) {
+                    continue;
+                }
+                live &= ~d;
+                if (i.op != Operation.INP && !clears(i)) {
+                    live |= d;
+                    if (!i.src_is_num) {
+                        live |= 1 << i.src_reg;
+                    }
+                }
+            }
+            return live;
+        }
+
+        // Return the values of the registers after the block between "from" and "to" that are always the same,
+        // whatever the values at the start of the block and the input digit (null for the registers that can change)
+        private Long[] constants_out(ArrayList<Instruction> instructions, int from, int to) {
+            Long[] vals = new Long[REGISTERS.length()];
+            for (int idx = from; idx < to; idx ++) {
+                Instruction i = instructions.get(idx);
+                int d = i.dest_reg;
+                Long src = i.op == Operation.INP ? null : (i.src_is_num ? (Long)i.src_num : vals[i.src_reg]);
+                if (clears(i) || (i.op == Operation.MUL && src != null && src == 0)) {
+                    vals[d] = 0L;
+                } else if (i.op == Operation.INP || vals[d] == null || src == null) {
+                    vals[d] = null;
+                } else {
+                    vals[d] = apply_op(i.op, vals[d], src);
+                }
+            }
+            return vals;
+        }
+
+        // Compute the bounds used for dropping states. With a simple sign analysis (1: positive, 0: non-negative,
+        // -1: unknown), a block is "monotone" if it changes "z" only with "div z <n>" (n > 0), "mul z <positive>" and
+        // "add z <non-negative>". For such a block, z_after >= z_before / (product of its "div z" constants), so if
+        // all the remaining blocks are monotone, a state z can reach 0 only if z < product of all their divisors.
+        private void compute_bounds(ArrayList<Instruction> instructions) {
+            bound = new long[blocks + 1];
+            bound[blocks] = 1; // "z" must be 0 after the last block
+            for (int b = blocks - 1; b >= 0; b --) {
+                long div = block_divisor(instructions, block_start[b], block_start[b + 1]);
+                if (div == -1 || bound[b + 1] == Long.MAX_VALUE) {
+                    bound[b] = Long.MAX_VALUE;
+                } else {
+                    bound[b] = bound[b + 1] > Long.MAX_VALUE / div ? Long.MAX_VALUE : bound[b + 1] * div;
+                }
+            }
+        }
+
+        // Return the product of the "div z" constants of a monotone block, or -1 if the block is not monotone
+        private long block_divisor(ArrayList<Instruction> instructions, int from, int to) {
+            int[] sign = new int[REGISTERS.length()];
+            Arrays.fill(sign, -1);
+            int z = reg_index("z");
+            sign[z] = 0;
+            long div = 1;
+            for (int idx = from; idx < to; idx ++) {
+                Instruction i = instructions.get(idx);
+                int d = i.dest_reg;
+                int src = i.op == Operation.INP ? 1 : (i.src_is_num ? (i.src_num > 0 ? 1 : (i.src_num == 0 ? 0 : -1)) : sign[i.src_reg]);
+                int res = -1;
+                switch (i.op) {
+                    case INP:
+                        res = 1; // digits are 1..9
+                        break;
+                    case ADD:
+                        res = sign[d] >= 0 && src >= 0 ? Math.max(sign[d], src) : -1;
+                        break;
+                    case SUB:
+                        res = clears(i) ? 0 : -1;
+                        break;
+                    case MUL:
+                        if (clears(i)) {
+                            res = 0;
+                        } else {
+                            res = sign[d] >= 0 && src >= 0 ? Math.min(sign[d], src) : -1;
+                        }
+                        break;
+                    case DIV:
+                    case MOD:
+                        res = sign[d] >= 0 && src == 1 ? 0 : -1;
+                        break;
+                    case EQL:
+                    case NEQ:
+                        res = 0;
+                        break;
+                    default:
+                        res = -1;
+                }
+                if (d == z) { // check that "z" is changed in a monotone way
+                    if (i.op == Operation.DIV && i.src_is_num && i.src_num > 0) {
+                        div = div > Long.MAX_VALUE / i.src_num ? Long.MAX_VALUE : div * i.src_num;
+                    } else if (!((i.op == Operation.ADD && src >= 0) || (i.op == Operation.MUL && src == 1))) {
+                        return -1;
+                    }
+                    res = 0;
+                }
+                sign[d] = res;
+            }
+            return div;
+        }
+
+        // Build the next layer from the states in "prev" (from "from" to "to") after running block "b". Returns null
+        // if the layer has more than "limit" states.
+        private Layer step(Layer prev, int from, int to, int b, long limit) {
+            int capacity = (int)Math.min((to - from) * 2L, limit + 1);
+            Layer next = new Layer(Math.max(16, capacity));
+            LongIntMap index = new LongIntMap(capacity);
+            long[] regs = new long[REGISTERS.length()];
+            int[] input = new int[1];
+            long z_limit = bound[b + 1];
+            for (int s = from; s < to; s ++) {
+                for (int d = 1; d <= 9; d ++) {
+                    if (b == 0) {
+                        System.arraycopy(init_regs, 0, regs, 0, regs.length);
+                    } else {
+                        System.arraycopy(entry_regs[b], 0, regs, 0, regs.length);
+                        regs[3] = prev.zs[s];
+                    }
+                    input[0] = d;
+                    try {
+                        alu.run_range(block_start[b], block_start[b + 1], input, 0, regs);
+                    } catch (ArithmeticException e) { // invalid division or modulo, the ALU can't continue
+                        continue;
+                    }
+                    long z = regs[3];
+                    if (z >= z_limit || (b == blocks - 1 && z != 0)) { // can't get back to 0
+                        continue;
+                    }
+                    next.update(index, z, prev.max_rank[s] * 10L + d, s, prev.min_rank[s] * 10L + d, s);
+                    if (next.size > limit) {
+                        return null;
+                    }
+                }
+            }
+            return next;
+        }
+
+        // Build the layer after block "b", in parallel if "prev" is large enough. Returns null if the layer has more
+        // than "state_limit" states.
+        private Layer layer(Layer prev, int b, ForkJoinPool pool) {
+            int chunks = Math.min(threads * 4, Math.max(1, prev.size / 4096));
+            if (chunks == 1) {
+                return step(prev, 0, prev.size, b, state_limit);
+            }
+            ArrayList<RecursiveTask<Layer>> tasks = new ArrayList<>();
+            for (int c = 0; c < chunks; c ++) {
+                int from = (int)((long)prev.size * c / chunks), to = (int)((long)prev.size * (c + 1) / chunks);
+                tasks.add(new RecursiveTask<Layer>() {
+                    protected Layer compute() {
+                        return step(prev, from, to, b, state_limit / chunks); // the parts are in memory together
+                    }
+                });
+            }
+            for (RecursiveTask<Layer> t: tasks) {
+                pool.execute(t);
+            }
+            // Merge the partial layers
+            int capacity = (int)Math.min(prev.size * 2L, state_limit + 1);
+            Layer next = new Layer(Math.max(16, capacity));
+            LongIntMap index = new LongIntMap(capacity);
+            boolean over = false;
+            for (RecursiveTask<Layer> t: tasks) {
+                Layer part = t.join();
+                over |= part == null;
+                for (int i = 0; !over && i < part.size; i ++) {
+                    next.update(index, part.zs[i], part.max_key[i], part.max_parent[i], part.min_key[i], part.min_parent[i]);
+                }
+                over |= next.size > state_limit;
+            }
+            return over ? null : next;
+        }
+
+        // Solve the program, return null if this engine can't be used for it
+        public Answer solve() {
+            if (reason != null) {
+                return null;
+            }
+            if (init_regs[3] >= bound[0]) {
+                return new Answer(null, null);
+            }
+            // Initial layer: the state before the first block
+            Layer prev = new Layer(1);
+            prev.update(new LongIntMap(1), init_regs[3], 0, -1, 0, -1);
+            prev.rank();
+            ArrayList<Layer> layers = new ArrayList<>();
+            long memory = 0;
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (int b = 0; b < blocks; b ++) {
+                    Layer next;
+                    // Memory: the working set of this step plus the compacted layers
+                    state_limit = Math.min(Integer.MAX_VALUE - 1, (dp_memory - memory - prev.size * STATE_BYTES) / STATE_BYTES);
+                    try {
+                        next = state_limit < 0 ? null : layer(prev, b, pool);
+                    } catch (OutOfMemoryError e) { // the layers are garbage once this returns
+                        reason = String.format("out of memory in block %d (%d states before it)", b, prev.size);
+                        return null;
+                    }
+                    if (next == null) {
+                        reason = String.format("memory budget exceeded in block %d (%d states before it, more than %d after it)", b, prev.size, Math.max(0, state_limit));
+                        return null;
+                    }
+                    if (next.size == 0) {
+                        return new Answer(null, null);
+                    }
+                    next.rank();
+                    max_states = Math.max(max_states, next.size);
+                    total_states += next.size;
+                    memory += next.size * 10L;
+                    prev.compact();
+                    layers.add(next);
+                    prev = next;
+                }
+            } finally {
+                pool.shutdown();
+            }
+            // The last layer has a single state (z == 0), follow the best prefixes back to the first block
+            char[] max = new char[blocks], min = new char[blocks];
+            int max_s = 0, min_s = 0;
+            for (int b = blocks - 1; b >= 0; b --) {
+                Layer l = layers.get(b);
+                max[b] = (char)('0' + l.max_digit[max_s]);
+                min[b] = (char)('0' + l.min_digit[min_s]);
+                max_s = l.max_parent[max_s];
+                min_s = l.min_parent[min_s];
+            }
+            return new Answer(new String(max), new String(min));
+        }
+    }
+
+    // ****************************************************************************************************************
+    // On-disk cache of the results of solving a program, keyed by the SHA-256 hash of the program (normalized by
+    // printing its parsed instructions, so that formatting doesn't matter). An entry holds the answers, the number of
+    // input digits and, if the symbolic engine solved the program, its reduced conditions, final expression and used
+    // digits. The file layout (big endian) is:
+    //   header: magic (4 bytes) | format version (4) | key (32) | payload size (4)
+    //   payload: answers (max, min as ASCII strings prefixed with their length, -1 for none) | input count (4)
+    //            | number of used digits (4) | used digits (1 each) | number of nodes (4) | nodes | number of
+    //            conditions (4) | node of each condition (4 each) | node of the final expression (4, -1 for none)
+    //   trailer: CRC32 of the payload (4)
+    // A node is a kind byte (0: number, 1: digit, 2 + ordinal: operation) followed by the value (8 bytes) for a number,
+    // the digit (4) for a digit or the indexes of the two operands (4 + 4, always lower than the node's own index).
+    // An entry that doesn't pass all the checks (including a different format version) is rebuilt.
+
+    class ResultCache {
+        static final int MAGIC = 0x44323443;            // "D24C"
+        static final int VERSION = 1;
+        static final int HEADER_SIZE = 4 + 4 + 32 + 4;
+
+        private File dir;                               // the cache directory
+        private byte[] key;                             // the hash of the program
+        public String status;                           // what happened with the cache entry (for statistics)
+
+        public ResultCache(String dir_name, ArrayList<Instruction> program) {
+            dir = new File(dir_name);
+            StringBuilder text = new StringBuilder();
+            for (Instruction i: program) {
+                text.append(i.toString().trim()).append('\n');
+            }
+            try {
+                key = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.US_ASCII));
+            } catch (NoSuchAlgorithmException e) { // every Java implementation must support SHA-256
+                throw new IllegalStateException(e);
+            }
+            status = "miss";
+        }
+
+        // Return the file of the entry for this program
+        public File file() {
+            StringBuilder name = new StringBuilder();
+            for (byte b: key) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(dir, name.append(".d24").toString());
+        }
+
+        // Return the cached answer for the program (and restore the reduced result in "all_results"), or null if there
+        // is no valid entry for it
+        public Answer load() {
+            File f = file();
+            if (!f.isFile()) {
+                return null;
+            }
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                String error = check_header(buf, ch.size());
+                Answer res = error == null ? read_payload(buf) : null;
+                if (res == null) {
+                    status = String.format("invalid entry (%s), rebuilt", error == null ? "bad payload" : error);
+                } else {
+                    status = "hit";
+                }
+                return res;
+            } catch (IOException e) {
+                status = String.format("unreadable entry (%s), rebuilt", e.getMessage());
+                return null;
+            }
+        }
+
+        // Check the header and the CRC of an entry and return null if they are OK, or the reason why they're not
+        private String check_header(ByteBuffer buf, long size) {
+            if (size < HEADER_SIZE + 4) {
+                return "truncated";
+            } else if (buf.getInt() != MAGIC) {
+                return "bad magic";
+            } else if (buf.getInt() != VERSION) {
+                return "old version";
+            }
+            byte[] k = new byte[key.length];
+            buf.get(k);
+            if (!Arrays.equals(k, key)) {
+                return "different program";
+            }
+            int payload_size = buf.getInt();
+            if (payload_size < 0 || HEADER_SIZE + (long)payload_size + 4 != size) {
+                return "bad size";
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer payload = buf.slice();
+            payload.limit(payload_size);
+            crc.update(payload);
+            if ((int)crc.getValue() != buf.getInt(HEADER_SIZE + payload_size)) {
+                return "bad checksum";
+            }
+            return null;
+        }
+
+        // Read the payload of an entry (the buffer is positioned at its start). Returns null if it's inconsistent.
+        private Answer read_payload(ByteBuffer buf) {
+            try {
+                String max = read_string(buf), min = read_string(buf);
+                if (buf.getInt() != input_count) {
+                    return null;
+                }
+                int[] used = new int[buf.getInt()];
+                for (int k = 0; k < used.length; k ++) {
+                    used[k] = buf.get();
+                }
+                Expression[] nodes = new Expression[buf.getInt()];
+                for (int n = 0; n < nodes.length; n ++) {
+                    int kind = buf.get();
+                    if (kind == 0) {
+                        nodes[n] = make_number(buf.getLong());
+                    } else if (kind == 1) {
+                        int d = buf.getInt();
+                        if (d < 0 || d >= input_count) {
+                            return null;
+                        }
+                        nodes[n] = digit_symbols[d];
+                    } else if (kind >= 2 && kind - 2 < Operation.values().length) {
+                        int l = buf.getInt(), r = buf.getInt();
+                        if (l < 0 || l >= n || r < 0 || r >= n) {
+                            return null;
+                        }
+                        nodes[n] = make_tree(Operation.values()[kind - 2], nodes[l], nodes[r]);
+                    } else {
+                        return null;
+                    }
+                }
+                ArrayList<Expression> conds = new ArrayList<>();
+                int cond_count = buf.getInt();
+                for (int c = 0; c < cond_count; c ++) {
+                    int n = buf.getInt();
+                    if (n < 0 || n >= nodes.length) {
+                        return null;
+                    }
+                    conds.add(nodes[n]);
+                }
+                int z = buf.getInt();
+                if (z >= nodes.length || z < -1) {
+                    return null;
+                }
+                if (z != -1) {
+                    all_results.add(new Result(conds, nodes[z]));
+                    used_digits = used;
+                }
+                return new Answer(max, min);
+            } catch (BufferUnderflowException e) {
+                return null;
+            }
+        }
+
+        private String read_string(ByteBuffer buf) {
+            int len = buf.getInt();
+            if (len == -1) {
+                return null;
+            }
+            byte[] b = new byte[len];
+            buf.get(b);
+            return new String(b, StandardCharsets.US_ASCII);
+        }
+
+        // Write the entry for the program. The entry is written to a temporary file first and then moved in place, so
+        // the other processes that use the same cache never see a partially written entry.
+        public void store(Answer res) {
+            ByteArrayOutputStream payload_bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payload_bytes);
+            Result r = engine_info.startsWith("symbolic") ? all_results.peek() : null;
+            try {
+                write_string(payload, res.max);
+                write_string(payload, res.min);
+                payload.writeInt(input_count);
+                int[] used = r == null ? new int[0] : used_digits;
+                payload.writeInt(used.length);
+                for (int d: used) {
+                    payload.writeByte(d);
+                }
+                // The nodes, in an order where the operands of a node are always before it
+                HashMap<Integer, Integer> index = new HashMap<>();
+                ArrayList<Expression> nodes = new ArrayList<>();
+                if (r != null) {
+                    for (Expression c: r.conditions) {
+                        add_node(c, index, nodes);
+                    }
+                    add_node(r.z, index, nodes);
+                }
+                payload.writeInt(nodes.size());
+                for (Expression e: nodes) {
+                    if (e.kind == ExpressionKind.NUMBER) {
+                        payload.writeByte(0);
+                        payload.writeLong(e.num_v);
+                    } else if (e.kind == ExpressionKind.SYMBOL) {
+                        payload.writeByte(1);
+                        payload.writeInt(e.digit_no());
+                    } else {
+                        payload.writeByte(2 + e.op.ordinal());
+                        payload.writeInt(index.get(e.left.id));
+                        payload.writeInt(index.get(e.right.id));
+                    }
+                }
+                payload.writeInt(r == null ? 0 : r.conditions.size());
+                if (r != null) {
+                    for (Expression c: r.conditions) {
+                        payload.writeInt(index.get(c.id));
+                    }
+                }
+                payload.writeInt(r == null ? -1 : index.get(r.z.id));
+                payload.flush();
+
+                byte[] p = payload_bytes.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(p);
+                dir.mkdirs();
+                File tmp = File.createTempFile("entry", ".tmp", dir);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.write(key);
+                    out.writeInt(p.length);
+                    out.write(p);
+                    out.writeInt((int)crc.getValue());
+                }
+                Files.move(tmp.toPath(), file().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (status.equals("miss")) {
+                    status = "miss, stored";
+                }
+            } catch (IOException e) {
+                status = String.format("%s, unable to store (%s)", status, e.getMessage());
+            }
+        }
+
+        private void write_string(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(s.length());
+                out.write(s.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        // Add the nodes of "e" that were not added yet, operands first
+        private void add_node(Expression e, HashMap<Integer, Integer> index, ArrayList<Expression> nodes) {
+            for (Expression n: e.post_order(o -> index.containsKey(o.id))) {
+                index.put(n.id, nodes.size());
+                nodes.add(n);
+            }
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Expression factory (hash-consing)
+
+    // Return the unique instance of the given expression, registering it in the interning table if it is new.
+    // This can be called from multiple threads.
+    private Expression intern(Expression e) {
+        expressions_requested.increment();
+        Expression existing = interned.get(e);
+        if (existing != null) {
+            return existing;
+        }
+        e.id = next_expression_id.getAndIncrement();
+        existing = interned.putIfAbsent(e, e);
+        return existing == null ? e : existing;
+    }
+
+    // Return the expression for the given value (number or symbol)
+    Expression make_value(String v) {
+        return intern(new Expression(v));
+    }
+
+    // Return the expression for the given integer value
+    Expression make_number(long v) {
+        return intern(new Expression(v));
+    }
+
+    // Forget the cached limits of all the expressions (used when benchmarking the limits analysis)
+    void reset_limits() {
+        for (Expression e: interned.keySet()) {
+            e.limits = null;
+        }
+    }
+
+    // Return the expression for a TREE with the given operation and (already interned) operands
+    Expression make_tree(Operation op, Expression left, Expression right) {
+        return intern(new Expression(op, left, right));
+    }
+
+    // Return the expression for "op" applied to the (already evaluated) operands "left_v" and "right_v", simplifying
+    // it if possible. Besides the simple identities (x + 0, x * 1, ...) this folds nested constants and uses the limits
+    // of the operands to collapse the base k "stacks" that the programs keep in "z": for a >= 0 and 0 <= b < k,
+    // (a * k + b) % k = b and (a * k + b) / k = a, so a value pushed on the stack and popped later doesn't keep the
+    // whole history of the stack.
+    Expression simplify(Operation op, Expression left_v, Expression right_v) {
+        Expression res = null;
+        if (left_v.kind == ExpressionKind.NUMBER && right_v.kind == ExpressionKind.NUMBER) {
+            // Easy, compute the result directly
+            res = make_number(apply_op(op, left_v.num_v, right_v.num_v));
+        } else { // all the other combinations, including trees, numbers and symbols
+            Expression the_number = null, other = null;
+            if (left_v.kind == ExpressionKind.NUMBER) {
+                the_number = left_v;
+                other = right_v;
+            } else if (right_v.kind == ExpressionKind.NUMBER) {
+                the_number = right_v;
+                other = left_v;
+            }
+            // "k" is the constant on the right of a DIV/MOD (0 if there's no such constant)
+            long k = right_v.kind == ExpressionKind.NUMBER && right_v.num_v > 0 ? right_v.num_v : 0;
+            switch (op) {
+                case MUL:
+                    if (the_number != null && the_number.num_v == 0) { // anything * 0 = 0
+                        res = make_number(0);
+                    } else if (the_number != null && the_number.num_v == 1) { // x * 1 = 1 + x = x
+                        res = other;
+                    } else if (the_number != null && mul_factor(other) != 0 && fits_product(mul_factor(other), the_number.num_v)) {
+                        // (x * a) * b = x * (a * b)
+                        res = simplify(Operation.MUL, mul_operand(other), make_number(mul_factor(other) * the_number.num_v));
+                    }
+                    break;
+                case ADD:
+                    if (the_number != null && the_number.num_v == 0) { // x + 0 = 0 + x = x
+                        res = other;
+                    } else if (the_number != null) { // (x + a) + b = x + (a + b), (x - a) + b = x + (b - a)
+                        res = add_constant(other, the_number.num_v);
+                    }
+                    break;
+                case SUB:
+                    if (right_v.kind == ExpressionKind.NUMBER && right_v.num_v == 0) { // x - 0 = x
+                        res = left_v;
+                    } else if (right_v.kind == ExpressionKind.NUMBER) { // (x + a) - b = x + (a - b), (x - a) - b = x - (a + b)
+                        res = add_constant(left_v, -right_v.num_v);
+                    } else if (left_v == right_v) { // x - x = 0
+                        res = make_number(0);
+                    }
+                    break;
+                case DIV:
+                    if (left_v == right_v) { // x / x = 1
+                        res = make_number(1);
+                    } else if (k == 1) { // x / 1 = x
+                        res = left_v;
+                    } else if (k > 0) {
+                        Limits l = left_v.get_limits();
+                        if (l.min >= 0 && l.max < k) { // x / k = 0 for 0 <= x < k
+                            res = make_number(0);
+                        } else if (mul_factor(left_v) == k) { // (x * k) / k = x
+                            res = mul_operand(left_v);
+                        } else if (left_v.kind == ExpressionKind.TREE && left_v.op == Operation.DIV && left_v.right.kind == ExpressionKind.NUMBER
+                            && left_v.right.num_v > 0 && fits_product(left_v.right.num_v, k)) {
+                            // (x / a) / b = x / (a * b) (a, b > 0, truncating division)
+                            res = simplify(Operation.DIV, left_v.left, make_number(left_v.right.num_v * k));
+                        } else {
+                            // (a * k + b) / k = a + b / k (a, b >= 0)
+                            Expression[] parts = split_multiple(left_v, k);
+                            if (parts != null) {
+                                res = simplify(Operation.ADD, parts[0], simplify(Operation.DIV, parts[1], right_v));
+                            }
+                        }
+                    }
+                    break;
+                case MOD:
+                    if (left_v == right_v) { // x % x = 0
+                        res = make_number(0);
+                    } else if (k == 1) { // x % 1 = 0
+                        res = make_number(0);
+                    } else if (k > 0) {
+                        Limits l = left_v.get_limits();
+                        if (l.min >= 0 && l.max < k) { // x % k = x for 0 <= x < k
+                            res = left_v;
+                        } else if (mul_factor(left_v) != 0 && mul_factor(left_v) % k == 0) { // (x * (n * k)) % k = 0
+                            res = make_number(0);
+                        } else {
+                            // (a * k + b) % k = b % k (a, b >= 0)
+                            Expression[] parts = split_multiple(left_v, k);
+                            if (parts != null) {
+                                res = simplify(Operation.MOD, parts[1], right_v);
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    assert false;
+            }
+        }
+        // Return a new expression with the evaluated values of the right and left operands, unless its limits show
+        // that it's a constant (for example, ((x * 26) + 4) % 2 is always 0)
+        if (res == null) {
+            res = make_tree(op, left_v, right_v);
+            Limits l = res.get_limits();
+            if (l.modulus == 0) {
+                res = make_number(l.residue);
+            }
+        }
+        return res;
+    }
+
+    // Return "x + c" with the constants folded (the result is "x + c" or "x - (-c)", without nested constants)
+    Expression add_constant(Expression x, long c) {
+        if (x.kind == ExpressionKind.TREE && (x.op == Operation.ADD || x.op == Operation.SUB) && x.right.kind == ExpressionKind.NUMBER) {
+            c += x.op == Operation.ADD ? x.right.num_v : -x.right.num_v;
+            x = x.left;
+        }
+        if (c == 0) {
+            return x;
+        } else if (x.kind == ExpressionKind.NUMBER) {
+            return make_number(x.num_v + c);
+        }
+        return c > 0 ? make_tree(Operation.ADD, x, make_number(c)) : make_tree(Operation.SUB, x, make_number(-c));
+    }
+
+    // If "e" is a multiplication with a constant, return the constant, otherwise return 0
+    static long mul_factor(Expression e) {
+        if (e.kind != ExpressionKind.TREE || e.op != Operation.MUL) {
+            return 0;
+        } else if (e.right.kind == ExpressionKind.NUMBER) {
+            return e.right.num_v;
+        }
+        return e.left.kind == ExpressionKind.NUMBER ? e.left.num_v : 0;
+    }
+
+    // Return the operand of a multiplication with a constant that is not the constant
+    static Expression mul_operand(Expression e) {
+        return e.right.kind == ExpressionKind.NUMBER ? e.left : e.right;
+    }
+
+    // Split "e" as "a * k + b" with a >= 0 and b >= 0 and return {a, b}, or null if that's not possible
+    Expression[] split_multiple(Expression e, long k) {
+        if (e.kind != ExpressionKind.TREE || e.op != Operation.ADD) {
+            return null;
+        }
+        for (int side = 0; side < 2; side ++) {
+            Expression m = side == 0 ? e.left : e.right;
+            Expression b = side == 0 ? e.right : e.left;
+            if (mul_factor(m) == k && mul_operand(m).get_limits().min >= 0 && b.get_limits().min >= 0) {
+                return new Expression[] {mul_operand(m), b};
+            }
+        }
+        return null;
+    }
+
+    // Return true if a * b doesn't overflow
+    static boolean fits_product(long a, long b) {
+        return Math.abs(a) < (1L << 31) && Math.abs(b) < (1L << 31);
+    }
+
+    // ****************************************************************************************************************
+    // Instrumentation. Each phase of solving a program (reading, parsing, optimizing, interpreting, analyzing the
+    // result, searching, ...) is timed and recorded as a JDK Flight Recorder event, and the counters of the program are
+    // recorded as another event after it's solved. JFR events cost almost nothing when they are not recorded, so this
+    // is always on. To record them: "java -XX:StartFlightRecording=filename=day24.jfr Solution.java", then
+    // "jfr print --events day24.Phase,day24.Counters day24.jfr". "--stats" prints the same data.
+
+    @Name("day24.Phase")
+    @Label("Phase")
+    @Category("Day 24")
+    @Description("A phase of solving a program")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Program")
+        String program;
+    }
+
+    @Name("day24.Counters")
+    @Label("Counters")
+    @Category("Day 24")
+    @Description("The counters of a solved program")
+    @StackTrace(false)
+    static class CountersEvent extends Event {
+        @Label("Program")
+        String program;
+        @Label("Engine")
+        String engine;
+        @Label("Forks")
+        long forks;
+        @Label("Forks Avoided")
+        long forks_avoided;
+        @Label("Paths")
+        long paths;
+        @Label("Infeasible Paths")
+        long paths_infeasible;
+        @Label("Paths Pruned By Z")
+        long paths_bad_z;
+        @Label("Paths Pruned By Condition")
+        long paths_bad_condition;
+        @Label("Expressions Built")
+        long expressions_built;
+        @Label("Distinct Expressions")
+        long expressions_distinct;
+        @Label("Candidates")
+        long candidates;
+        @Label("Candidates Rejected By Condition")
+        long candidates_bad_condition;
+        @Label("Candidates Rejected By Z")
+        long candidates_bad_z;
+    }
+
+    // A phase that is running, ended by close() (see timed() and timed_action())
+    class Phase {
+        private String name;
+        private PhaseEvent event;
+        private long start;
+
+        public Phase(String name) {
+            this.name = name;
+            event = new PhaseEvent();
+            event.phase = name;
+            event.program = program_name;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            event.commit();
+            phase_nanos.merge(name, elapsed, Long::sum);
+        }
+    }
+
+    // The code of a phase that returns a value
+    interface PhaseBody<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    // The code of a phase that doesn't return a value
+    interface PhaseAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    // Run "body" as the phase "name" and return its result
+    <T, E extends Exception> T timed(String name, PhaseBody<T, E> body) throws E {
+        Phase p = new Phase(name);
+        try {
+            return body.run();
+        } finally {
+            p.close();
+        }
+    }
+
+    // Run "action" as the phase "name"
+    <E extends Exception> void timed_action(String name, PhaseAction<E> action) throws E {
+        Phase p = new Phase(name);
         try {
-            is.close();
-        } catch (Exception e) {}
+            action.run();
+        } finally {
+            p.close();
+        }
+    }
+
+    // Record the counters of the program (if the event is enabled)
+    void commit_counters() {
+        CountersEvent event = new CountersEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.program = program_name;
+        event.engine = engine_info;
+        event.forks = forks.sum();
+        event.forks_avoided = forks_avoided.sum();
+        event.paths = paths.sum();
+        event.paths_infeasible = paths_infeasible.sum();
+        event.paths_bad_z = paths_bad_z.sum();
+        event.paths_bad_condition = paths_bad_condition.sum();
+        event.expressions_built = expressions_requested.sum();
+        event.expressions_distinct = next_expression_id.get();
+        event.candidates = candidates.sum();
+        event.candidates_bad_condition = candidates_bad_condition.sum();
+        event.candidates_bad_z = candidates_bad_z.sum();
+        event.commit();
+    }
+
+    // ****************************************************************************************************************
+    // Various utilities
+
+    // Read input file, populate the internal Instructions array and optimize it
+    void read_input(String fname) throws IOException {
+        program_name = fname;
+        byte[] text = timed("read", () -> {
+            try (InputStream is = new FileInputStream(fname)) {
+                return is.readAllBytes();
+            }
+        });
+        load_program(text, fname);
+    }
+
+    // Populate the internal Instructions array from the program text and optimize it
+    void load_program(byte[] text, String fname) {
+        program_name = fname;
+        timed_action("parse", () -> {
+            program = parse_program(text, fname);
+            for (Instruction i: program) {
+                if (i.op == Operation.INP) {
+                    input_count ++;
+                }
+            }
+        });
+        optimizer = new Optimizer(passes);
+        instructions = timed("optimize", () -> optimizer.run(program));
+        digit_symbols = new Expression[input_count];
+        for (int d = 0; d < input_count; d ++) {
+            digit_symbols[d] = make_value("d" + d);
+        }
+    }
+
+    // Tokenize the program in "text" directly from its bytes, resolving the operands of each instruction to register
+    // slots or immediates. "fname" is only used in error messages.
+    ArrayList<Instruction> parse_program(byte[] text, String fname) {
+        ArrayList<Instruction> res = new ArrayList<>();
+        int pos = 0, line = 0;
+        while (pos < text.length) {
+            int eol = pos;
+            while (eol < text.length && text[eol] != '\n') {
+                eol ++;
+            }
+            line ++;
+            // Split the line in at most 3 tokens, given by their [start, end) offsets
+            int[] starts = new int[3], ends = new int[3];
+            int tokens = 0;
+            boolean too_many = false;
+            for (int k = pos; k < eol;) {
+                if (text[k] == ' ' || text[k] == '\t' || text[k] == '\r') {
+                    k ++;
+                } else if (tokens == 3) {
+                    too_many = true;
+                    break;
+                } else {
+                    starts[tokens] = k;
+                    while (k < eol && text[k] != ' ' && text[k] != '\t' && text[k] != '\r') {
+                        k ++;
+                    }
+                    ends[tokens ++] = k;
+                }
+            }
+            pos = eol + 1;
+            if (tokens == 0) { // empty line
+                continue;
+            }
+            Operation op = tokens >= 2 && !too_many ? parse_op(text, starts[0], ends[0]) : null;
+            int dest_reg = op == null ? -1 : parse_reg(text, starts[1], ends[1]);
+            int src_reg = -1;
+            long src_num = 0;
+            boolean ok = dest_reg != -1 && (op == Operation.INP ? tokens == 2 : tokens == 3);
+            if (ok && op != Operation.INP) {
+                src_reg = parse_reg(text, starts[2], ends[2]);
+                if (src_reg == -1) {
+                    // Not a register, so it must be a number
+                    int k = starts[2];
+                    boolean negative = text[k] == '-';
+                    if (negative) {
+                        k ++;
+                    }
+                    ok = k < ends[2] && ends[2] - k <= 18;
+                    for (; ok && k < ends[2]; k ++) {
+                        ok = text[k] >= '0' && text[k] <= '9';
+                        src_num = src_num * 10 + (text[k] - '0');
+                    }
+                    src_num = negative ? -src_num : src_num;
+                }
+            }
+            if (!ok) {
+                throw new IllegalArgumentException(String.format("%s:%d: invalid instruction '%s'", fname, line, new String(text, starts[0], ends[tokens - 1] - starts[0], StandardCharsets.US_ASCII)));
+            }
+            res.add(new Instruction(op, dest_reg, src_reg, src_num));
+        }
+        return res;
+    }
+
+    // Return the Operation with the name in text[start, end) or null if there's no such operation
+    static Operation parse_op(byte[] text, int start, int end) {
+        for (int k = 0; k < OP_NAMES.length; k ++) {
+            String name = OP_NAMES[k];
+            if (end - start == name.length() && text[start] == name.charAt(0) && text[start + 1] == name.charAt(1) && text[start + 2] == name.charAt(2)) {
+                return Operation.values()[k];
+            }
+        }
+        return null;
+    }
+
+    // Return the register slot of the register name in text[start, end) or -1 if it's not a register
+    static int parse_reg(byte[] text, int start, int end) {
+        return end - start == 1 ? REGISTERS.indexOf(text[start]) : -1;
+    }
+
+    // Return true if "s" is a (decimal, possibly negative) integer number
+    static boolean is_number(String s) {
+        int start = s.startsWith("-") ? 1 : 0;
+        if (start == s.length()) {
+            return false;
+        }
+        for (int k = start; k < s.length(); k ++) {
+            if (!Character.isDigit(s.charAt(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Return the register file slot of the given register name, or -1 if the name is not a register
+    static int reg_index(String name) {
+        return name.length() == 1 ? REGISTERS.indexOf(name.charAt(0)) : -1;
+    }
+
+    // An execution path of the interpreter: the index of its next instruction and of its next input digit, the number
+    // of forks that lead to it, its register file (owned by it) and its conditions (shared with the paths it was
+    // forked from, so forking a path only copies the register file)
+    class Path {
+        public int start, input_index, depth;
+        public Expression[] regs;
+        public CondList conditions;
+
+        public Path(int start, int input_index, int depth, Expression[] regs, CondList conditions) {
+            this.start = start;
+            this.input_index = input_index;
+            this.depth = depth;
+            this.regs = regs;
+            this.conditions = conditions;
+        }
+    }
+
+    // An execution path of the interpreter that runs as a separate task in parallel mode
+    class InterpretTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private Path path;
+
+        public InterpretTask(Path path) {
+            this.path = path;
+        }
+
+        protected void compute() {
+            interpret(path);
+        }
+    }
+
+    // Interpret "first" and all the paths forked from it. A forked path waits in a worklist until the path that forked
+    // it is done, instead of running in a nested call, so the number of forks on a path is limited by the heap and not
+    // by the size of the thread stack. The worklist is a stack, so the paths run in depth-first order (the "true" side
+    // of a comparison first). In parallel mode, the paths forked at a depth lower than "split_depth" run as separate
+    // tasks instead.
+    void interpret(Path first) {
+        ArrayDeque<Path> pending = new ArrayDeque<>();
+        ArrayList<InterpretTask> forked = new ArrayList<>();
+        pending.push(first);
+        while (!pending.isEmpty()) {
+            run_path(pending.pop(), pending, forked);
+        }
+        // Wait for the paths that run as separate tasks
+        for (InterpretTask t: forked) {
+            t.join();
+        }
     }
 
-    // Interpret the list of instructios starting from "start", accumulating conditions in "conds"
-    void interpret(int start, int input_index, HashMap<String, Expression> vals, ArrayList<Expression> conditions) {
-        for (int idx = start; idx < instructions.size(); idx ++) {
+    // Run the instructions of path "p" to the end of the program, accumulating conditions in its condition list. The
+    // paths forked from it are added to "pending", or started as tasks and added to "forked".
+    void run_path(Path p, ArrayDeque<Path> pending, ArrayList<InterpretTask> forked) {
+        Expression[] regs = p.regs;
+        CondList conditions = p.conditions;
+        int input_index = p.input_index, depth = p.depth;
+        boolean feasible = true;
+        for (int idx = p.start; idx < instructions.size(); idx ++) {
             Instruction i = instructions.get(idx);
             Expression res = null;
             if (i.op == Operation.INP) { // execute input instruction directly
                 // Use "d<input_index>" as the notation for the input_index-th digit of the input
-                res = new Expression(String.format("d%d", input_index));
+                res = digit_symbols[input_index];
                 input_index ++;
             } else if (i.op == Operation.NEQ || i.op == Operation.EQL) {
-                Expression left = new Expression(i.dest).eval(vals);
-                Expression right = new Expression(i.src).eval(vals);
-                // Split current execution path in two paths where the comparison has different values (0 or 1)
-                // Make a copy of the current environment
-                HashMap<String, Expression> vals_copy = new HashMap<>();
-                vals.forEach((key, value) -> vals_copy.put(key, value));
-                vals_copy.put(i.dest, new Expression(1)); // split for value 1
-                // And a copy of the current conditions
-                ArrayList<Expression> conditions_copy = new ArrayList<>();
-                conditions.forEach((e) -> conditions_copy.add(e));
-                conditions_copy.add(new Expression(i.op, left, right));
-                // Split for condition true
-                interpret(idx + 1, input_index, vals_copy, conditions_copy);
-                // Continue on this execution for condition false
-                conditions.add(new Expression(i.op == Operation.EQL ? Operation.NEQ : Operation.EQL, left, right));
-                res = new Expression(0);
+                Expression left = regs[i.dest_reg];
+                Expression right = i.src_value(regs);
+                Expression cond_true = make_tree(i.op, left, right);
+                Expression cond_false = make_tree(i.op == Operation.EQL ? Operation.NEQ : Operation.EQL, left, right);
+                // Check which results of the comparison are actually possible
+                boolean can_be_true = !cond_true.is_definitely_false();
+                boolean can_be_false = !cond_false.is_definitely_false();
+                if (!can_be_true && !can_be_false) { // contradiction, this path is not feasible
+                    feasible = false;
+                    break;
+                } else if (can_be_true && can_be_false) {
+                    // Split current execution path in two paths where the comparison has different values (0 or 1)
+                    // Make a copy of the current registers
+                    Expression[] regs_copy = regs.clone();
+                    regs_copy[i.dest_reg] = make_number(0); // split for value 0
+                    // The conditions of the new path share the conditions of the current one
+                    Path other = new Path(idx + 1, input_index, depth + 1, regs_copy, new CondList(cond_false, conditions));
+                    forks.increment();
+                    if (parallel_interpret && depth < split_depth) {
+                        InterpretTask t = new InterpretTask(other);
+                        t.fork();
+                        forked.add(t);
+                    } else {
+                        pending.push(other);
+                    }
+                    depth ++;
+                    // Continue on this execution for condition true
+                    conditions = new CondList(cond_true, conditions);
+                    res = make_number(1);
+                } else { // the comparison has a single possible result, so there's no need to fork or keep a condition
+                    forks_avoided.increment();
+                    res = make_number(can_be_true ? 1 : 0);
+                }
             } else {
-                res = new Expression(i.op, new Expression(i.dest), new Expression(i.src)).eval(vals);
+                res = simplify(i.op, regs[i.dest_reg], i.src_value(regs));
             }
             assert res != null;
-            vals.put(i.dest, res);
+            regs[i.dest_reg] = res;
+        }
+        if (!feasible) {
+            paths_infeasible.increment();
+            return;
         }
-        // After all the instructions ran, the final value of "z" is in vals[z]
+        paths.increment();
+        // After all the instructions ran, the final value of "z" is in its register
         // First check if the value can ever be 0
-        Limits l = vals.get("z").get_limits();
-        if (l.min > 0 || l.max < 0) {
+        Expression z = regs[reg_index("z")];
+        Limits l = z.get_limits();
+        if (!l.contains(0)) {
+            paths_bad_z.increment();
             return;
         }
         // Then bail out if any of the conditions can never be true
-        for(Expression e: conditions) {
+        ArrayList<Expression> all_conditions = cond_list_to_array(conditions);
+        for (Expression e: all_conditions) {
             if (e.op == Operation.EQL && e.eql_is_definitely_false()) {
+                paths_bad_condition.increment();
                 return;
             }
         }
         // This result is OK, but simplify the conditions by removing the != conditions that are always true
         // (for example digit != 12)
         ArrayList<Expression> filtered_conditions = new ArrayList<>();
-        for(Expression e: conditions) {
+        for (Expression e: all_conditions) {
             if (e.op == Operation.EQL || !e.neq_is_definitely_true()) {
                 filtered_conditions.add(e);
             }
         }
-        all_results.add(new Result(filtered_conditions, vals.get("z")));
+        all_results.add(new Result(filtered_conditions, z));
+    }
+
+    // Return the result of an ALU operation (other than INP) on two numbers
+    static long apply_op(Operation op, long a, long b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return a / b;
+            case MOD:
+                return a % b;
+            case EQL:
+                return a == b ? 1 : 0;
+            case NEQ:
+                return a != b ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Invalid operation " + op);
+        }
+    }
+
+    // Return the value of "op" applied to "a" and "b" if it can be known (null for unknown values), or null if it can't
+    // (including the operations that would fail)
+    static Long fold_value(Operation op, Long a, Long b) {
+        if (op == Operation.MUL && ((a != null && a == 0) || (b != null && b == 0))) {
+            return 0L;
+        } else if (a == null || b == null || (op == Operation.DIV && b == 0) || (op == Operation.MOD && (a < 0 || b <= 0))) {
+            return null;
+        }
+        return apply_op(op, a, b);
     }
 
     // Return the value of the given array as a long number
@@ -597,87 +4363,637 @@ public class Solution {
     // ****************************************************************************************************************
     // Entry point
 
-    void solve() throws FileNotFoundException {
-        read_input("input.txt");
-        // Initial environment
-        HashMap<String, Expression> vals = new HashMap<>();
-        vals.put("w", new Expression(0));
-        vals.put("x", new Expression(0));
-        vals.put("y", new Expression(0));
-        vals.put("z", new Expression(0));
-        // Interpret the program on all possible paths
-        interpret(0, 0, vals, new ArrayList<Expression>());
-        // At this point, all_result should have a single entry
-        assert all_results.size() == 1;
-        Expression e = all_results.get(0).z;
-        ArrayList<Expression> conds = all_results.get(0).conditions;
+    // Interpret the program on all possible paths, starting with all the registers set to 0
+    void interpret_program() {
+        Expression[] regs = new Expression[REGISTERS.length()];
+        Arrays.fill(regs, make_number(0));
+        if (parallel_interpret) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new InterpretTask(new Path(0, 0, 0, regs, null)));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            interpret(new Path(0, 0, 0, regs, null));
+        }
+    }
+
+    // Return the result of the symbolic interpreter. At this point, all_result should have a single entry with
+    // "digit == expression" conditions, that's what the searches can handle.
+    Result single_result() throws SolveException {
+        if (all_results.size() != 1) {
+            throw new SolveException(String.format("the symbolic engine needs a single result, found %d", all_results.size()));
+        }
+        Result r = all_results.peek();
+        for (Expression c: r.conditions) {
+            if (c.op != Operation.EQL || c.cond_digit().kind != ExpressionKind.SYMBOL || c.cond_digit().digit == -1) {
+                throw new SolveException(String.format("the symbolic engine can't handle the condition %s", c));
+            }
+        }
+        return r;
+    }
+
+    // Return why the symbolic engine can't be used for the program (null if it can be tried)
+    String symbolic_limitation() {
+        // The searches keep the digits of a candidate in a long
+        return input_count > 18 ? String.format("the symbolic engine supports at most 18 input digits, found %d", input_count) : null;
+    }
+
+    // Solve the program with the symbolic engine
+    Answer solve_symbolic() throws SolveException {
+        String limitation = symbolic_limitation();
+        if (limitation != null) {
+            throw new SolveException(limitation);
+        }
+        timed_action("interpret", this::interpret_program);
+        if (all_results.isEmpty()) { // no path ends with z == 0
+            return new Answer(null, null);
+        }
+        Result r = single_result();
+        Expression e = r.z;
+        ArrayList<Expression> conds = r.conditions;
 
         // Find the list of all input variables in the conditions and the body of the expression. These are the variables
         // that we'll have to go through in order to find the minimum/maximum values.
         TreeSet<Integer> used = new TreeSet<>();
-        e.analyze_digits(used);
-        for (Expression c: conds) {
-            c.analyze_digits(used);
-        }
-        // This is the "problem size": how many digits we actually need to iterate
-        Integer[] used_digs = used.stream().toArray(Integer[] ::new);
-        int input_size = used.size();
-        //System.out.println(String.format("Input size: %d", input_size));
-        // Map the digits in use to the actual digits returned by the generator
-        HashMap<Integer, Integer> dig_map = new HashMap<>();
-        for (int i = 0; i < used_digs.length; i ++) {
-            dig_map.put(i, used_digs[i]);
-        }
-        // Does the expression actually need to be evaluated? If its min == max == 0, it means it's always 0 for all digits.
-        Limits l = e.get_limits();
-        boolean must_eval_expr = l.min != 0 || l.max != 0;
-
-        // Generate all the input digits and check the conditions/expression (if needed)
-        Generator g = new Generator(input_size);
-        int[] digs = new int[14];
-        long max_v = 0, min_v = Long.MAX_VALUE;
-        while (true) {
-            // Get the current digits from iterator
-            int[] i_digs = g.next();
-            if (i_digs == null) {
-                break;
+        int[] used_digs;
+        long total = 1;
+        boolean must_eval_expr;
+        DigitChecker checker;
+        Phase analyze = new Phase("analyze");
+        try {
+            e._analyze_digits(used);
+            for (Expression c: conds) {
+                c.analyze_digits(used);
+            }
+            // This is the "problem size": how many digits we actually need to iterate. Generator digit "i" maps to the
+            // input digit "used_digs[i]".
+            used_digs = used.stream().mapToInt(Integer::intValue).toArray();
+            used_digits = used_digs;
+            for (int i = 0; i < used_digs.length; i ++) {
+                total *= 9;
+            }
+            // Does the expression actually need to be evaluated? If its min == max == 0, it means it's always 0 for all digits.
+            Limits l = e.get_limits();
+            must_eval_expr = l.min != 0 || l.max != 0;
+
+            // Generate all the input digits and check the conditions/expression (if needed)
+            checker = make_checker(conds, e, must_eval_expr, used_digs);
+            search_checker = checker;
+        } finally {
+            analyze.close();
+        }
+        long inputs = total;
+        long[] res = timed("search", () -> {
+            if (search_mode == SearchMode.ORDERED) {
+                return search_ordered(conds, e, must_eval_expr);
+            } else if (search_mode == SearchMode.PARALLEL) {
+                return search_parallel(checker, used_digs, inputs);
+            } else {
+                return search_range(checker, used_digs, 0, inputs);
             }
-            // Map the iterator digits to the 14-digits array needed by the puzzle
-            dig_map.forEach((key, value) -> digs[value] = i_digs[key]);
-            // Evaluate and check each condition
-            boolean ok = true;
+        });
+        long min_v = res[0], max_v = res[1];
+        boolean found = min_v != Long.MAX_VALUE;
+        if (search_mode != SearchMode.ORDERED && found) {
+            // The digits that are not used by the final result and not set by a condition can have any value, but the
+            // search left them at 0 (all of them if the result doesn't use any digit)
+            TreeSet<Integer> set = new TreeSet<>(used);
             for (Expression c: conds) {
-                DigitValue d = c.check_digit_condition(digs);
-                if (d.val <= 0 || d.val > 9) { // invalid digit
-                    ok = false;
-                    break;
+                set.add(c.cond_digit().digit_no());
+            }
+            long p = 1;
+            for (int d = input_count - 1; d >= 0; d --, p *= 10) {
+                if (!set.contains(d)) {
+                    max_v += 9 * p;
+                    min_v += p;
                 }
-                // Digit OK, store it
-                digs[d.dig_no] = d.val;
             }
-            if (!ok) {
-                continue;
+        }
+        return new Answer(found ? Long.toString(max_v) : null, found ? Long.toString(min_v) : null);
+    }
+
+    // Search all the inputs again with the checker of the last symbolic solve, on the current thread (used to
+    // benchmark the evaluators)
+    long[] search_again() {
+        long total = 1;
+        for (int i = 0; i < used_digits.length; i ++) {
+            total *= 9;
+        }
+        return search_range(search_checker, used_digits, 0, total);
+    }
+
+    // Return the value of "z" at the end of the path of the symbolic interpreter where the operands of every comparison
+    // that can go both ways are different (for the puzzle inputs, all the digit checks fail, so the stack in "z" never
+    // shrinks). Unlike the results of the interpreter, this doesn't reduce to a constant (used to benchmark the
+    // analysis and evaluation of large expressions).
+    Expression unreduced_z() {
+        Expression[] regs = new Expression[REGISTERS.length()];
+        Arrays.fill(regs, make_number(0));
+        int input_index = 0;
+        for (Instruction i: instructions) {
+            Expression res;
+            if (i.op == Operation.INP) {
+                res = digit_symbols[input_index ++];
+            } else if (i.op == Operation.NEQ || i.op == Operation.EQL) {
+                boolean can_differ = !make_tree(Operation.NEQ, regs[i.dest_reg], i.src_value(regs)).is_definitely_false();
+                res = make_number(can_differ == (i.op == Operation.NEQ) ? 1 : 0);
+            } else {
+                res = simplify(i.op, regs[i.dest_reg], i.src_value(regs));
             }
-            // Evaluate the expression if needed and skip if its value is not 0
-            if (must_eval_expr && e.eval_with_digits(digs) != 0) {
-                continue;
+            regs[i.dest_reg] = res;
+        }
+        return regs[reg_index("z")];
+    }
+
+    // Record why the selected engine can't solve the program, so that the symbolic engine is used instead
+    void fallback(String reason) {
+        fallback_reason = reason;
+        engine_info = String.format("symbolic (%s)", reason);
+    }
+
+    // Solve the program with the block structure analyzer. Returns null if the program doesn't have the expected
+    // structure or if the answers can't be verified.
+    Answer solve_blocks() {
+        BlockAnalyzer ba = new BlockAnalyzer(program);
+        Answer res = timed("blocks", ba::solve);
+        if (res == null) {
+            fallback(String.format("block analyzer: %s", ba.reason));
+            return null;
+        }
+        // Double check the answers with the concrete ALU
+        boolean valid = timed("validate", () -> {
+            Alu alu = new Alu(instructions);
+            return (res.max == null || alu.validate(res.max)) && (res.min == null || alu.validate(res.min));
+        });
+        if (!valid) {
+            fallback("block analyzer: answers not accepted by the ALU");
+            return null;
+        }
+        engine_info = String.format("blocks (%d blocks)", input_count);
+        return res;
+    }
+
+    // Solve the program with the dynamic programming engine. Returns null if the engine can't be used for the program.
+    Answer solve_dp() {
+        DpSolver dp = new DpSolver(instructions);
+        long start = System.nanoTime();
+        Answer res = timed("dp", dp::solve);
+        if (res == null) {
+            fallback(String.format("DP: %s", dp.reason));
+            return null;
+        }
+        engine_info = String.format("dp (%d blocks, %d states, at most %d in a block, %.3f s)", input_count, dp.total_states, dp.max_states, (System.nanoTime() - start) / 1e9);
+        return res;
+    }
+
+    // Solve the program that was read by read_input with the selected engine
+    Answer find_answer() throws SolveException {
+        ResultCache cache = cache_dir == null ? null : new ResultCache(cache_dir, program);
+        Answer res = null;
+        if (cache != null) {
+            res = timed("cache", cache::load);
+        }
+        if (res != null) {
+            engine_info = String.format("cache (%s)", cache.file());
+            cache_info = cache.status;
+        } else {
+            if (engine == Engine.BLOCKS) {
+                res = solve_blocks();
+            } else if (engine == Engine.DP) {
+                res = solve_dp();
             }
-            // We found a solution!
-            long temp = arr2long(digs);
-            if (min_v > temp) {
-                min_v = temp;
+            if (res == null) {
+                String limitation = symbolic_limitation();
+                if (limitation != null && engine != Engine.SYMBOLIC) {
+                    throw new SolveException(String.format("%s, and %s", fallback_reason, limitation));
+                }
+                res = solve_symbolic();
             }
-            if (max_v < temp) {
-                max_v = temp;
+            if (cache != null) {
+                Answer store = res;
+                timed_action("cache", () -> cache.store(store));
+                cache_info = cache.status;
             }
         }
+        commit_counters();
+        return res;
+    }
+
+    void solve(String fname) throws IOException, SolveException {
+        read_input(fname);
+        Answer res = find_answer();
 
         // Finally
-        System.out.println(String.format("Part 1: %d", max_v));
-        System.out.println(String.format("Part 2: %d", min_v));
+        System.out.println(String.format("Part 1: %s", res.max == null ? "none" : res.max));
+        System.out.println(String.format("Part 2: %s", res.min == null ? "none" : res.min));
+        if (verify) {
+            boolean[] ok = timed("verify", () -> {
+                Alu alu = new Alu(instructions);
+                return new boolean[] {res.max == null || alu.validate(res.max), res.min == null || alu.validate(res.min)};
+            });
+            System.out.println(String.format("Verification: part 1 %s, part 2 %s", ok[0] ? "OK" : "FAILED", ok[1] ? "OK" : "FAILED"));
+        }
+        if (print_count) {
+            long count = timed("count", this::count_accepted);
+            System.out.println(String.format("Accepted numbers: %d", count));
+        }
+        if (list_order != null) {
+            timed_action("list", () -> accepted_numbers(list_order.equals("desc")).limit(list_limit).forEach(System.out::println));
+        }
+        if (print_stats) {
+            StringBuilder removed = new StringBuilder();
+            for (Pass p: passes) {
+                removed.append(String.format("%s%s: %d", removed.length() == 0 ? "" : ", ", p.toString().toLowerCase(), optimizer.removed[p.ordinal()]));
+            }
+            System.out.println(String.format("Optimizer: %d -> %d instructions (removed by %s)", optimizer.size_before, optimizer.size_after, removed.length() == 0 ? "no passes" : removed));
+            if (optimizer.check_failure != null) {
+                System.out.println(String.format("Optimizer check failed (the program runs unoptimized): %s", optimizer.check_failure));
+            }
+            System.out.println(String.format("Engine: %s", engine_info));
+            if (cache_info != null) {
+                System.out.println(String.format("Cache: %s", cache_info));
+            }
+            StringBuilder phases = new StringBuilder();
+            for (Map.Entry<String, Long> p: phase_nanos.entrySet()) {
+                phases.append(String.format("%s%s %.1f ms", phases.length() == 0 ? "" : ", ", p.getKey(), p.getValue() / 1e6));
+            }
+            System.out.println(String.format("Phases: %s", phases));
+            if (engine_info.startsWith("symbolic")) {
+                System.out.println(String.format("Limits: computed for %d expressions, %d analyses saved by the cache, %d comparisons decided by congruences", limits_computed.sum(), limits_reused.sum(), congruence_prunes.sum()));
+                System.out.println(String.format("Interpreter: %d paths, %d forks, %d forks avoided", paths.sum(), forks.sum(), forks_avoided.sum()));
+                System.out.println(String.format("Pruned paths: %d infeasible, %d with z != 0, %d with a false condition", paths_infeasible.sum(), paths_bad_z.sum(), paths_bad_condition.sum()));
+                System.out.println(String.format("Expressions: %d built, %d distinct", expressions_requested.sum(), next_expression_id.get()));
+                if (search_mode != SearchMode.ORDERED) {
+                    System.out.println(String.format("Search: %d candidates, %d rejected by a condition, %d rejected by z", candidates.sum(), candidates_bad_condition.sum(), candidates_bad_z.sum()));
+                }
+                if (eval_mode == EvalMode.COMPARE) {
+                    System.out.println(String.format("Evaluator mismatches: %d", eval_mismatches.sum()));
+                }
+                if (node_pool != null) {
+                    System.out.println(String.format("Node pool: %d nodes in %d bytes", node_pool.size, node_pool.bytes()));
+                }
+                if (node_pool instanceof IncrementalPool && candidates.sum() > 0) {
+                    System.out.println(String.format("Incremental: %.2f nodes evaluated per candidate (of %d)", (double)incremental_nodes.sum() / candidates.sum(), node_pool.size));
+                }
+                if (lanes_info != null) {
+                    System.out.println(String.format("Lanes: %s", lanes_info));
+                }
+                if (search_mode == SearchMode.ORDERED) {
+                    System.out.println(String.format("Ordered search: %d evaluations", ordered_evaluations));
+                }
+            }
+        }
+    }
+
+    // ****************************************************************************************************************
+    // Batch mode: solve many programs in the same JVM. Each program is solved by a task on its own (virtual, if the JVM
+    // supports them) thread; reading a program doesn't need a CPU, but solving it does, so at most "threads" programs
+    // are solved at the same time. The results are printed as soon as they are available, in the order in which the
+    // programs are solved. A program generated with --generate has its expected answers in a sidecar file next to it;
+    // those files are skipped when listing a directory, and the answers are checked against them.
+
+    static final String EXPECTED_SUFFIX = ".expected";
+
+    // Return a new instance with the same options as this one
+    Solution with_same_options() {
+        Solution s = new Solution();
+        s.parallel_interpret = parallel_interpret;
+        s.split_depth = split_depth;
+        s.print_stats = print_stats;
+        s.verify = verify;
+        s.engine = engine;
+        s.dp_memory = dp_memory;
+        s.eval_mode = eval_mode;
+        s.search_mode = search_mode;
+        s.threads = threads;
+        s.passes = passes.clone();
+        s.cache_dir = cache_dir;
+        return s;
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
-        new Solution().solve();
+    // Return an executor that runs each task on a new virtual thread. Virtual threads are only available starting with
+    // Java 21 (and this must also run on Java 11), so look for them with reflection and use a pool of platform threads
+    // if they are not available.
+    ExecutorService new_task_executor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads * 2);
+        }
+    }
+
+    // Solve all the programs in "source", which is either a directory or "-" for a list of program files (one per
+    // line) read from the standard input. Returns the number of programs that failed (including the ones with answers
+    // that don't match their expected answers).
+    int solve_batch(String source) throws IOException, InterruptedException {
+        ArrayList<String> fnames = new ArrayList<>();
+        if (source.equals("-")) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String l;
+            while ((l = r.readLine()) != null) {
+                if (!l.trim().isEmpty()) {
+                    fnames.add(l.trim());
+                }
+            }
+        } else {
+            File[] files = new File(source).listFiles();
+            if (files == null) {
+                throw new FileNotFoundException(String.format("%s is not a directory", source));
+            }
+            Arrays.sort(files);
+            for (File f: files) {
+                if (f.isFile() && !f.getName().endsWith(EXPECTED_SUFFIX)) {
+                    fnames.add(f.getPath());
+                }
+            }
+        }
+        Semaphore cpu = new Semaphore(threads);
+        LongAdder failed = new LongAdder(), solve_nanos = new LongAdder();
+        ExecutorService executor = new_task_executor();
+        boolean is_virtual = !(executor instanceof ThreadPoolExecutor);
+        long start = System.nanoTime();
+        for (String fname: fnames) {
+            executor.submit(() -> {
+                String res;
+                try {
+                    byte[] text = Files.readAllBytes(Paths.get(fname));
+                    cpu.acquire();
+                    try {
+                        long solve_start = System.nanoTime();
+                        res = with_same_options().solve_text(text, fname);
+                        long elapsed = System.nanoTime() - solve_start;
+                        solve_nanos.add(elapsed);
+                        res += String.format(" (%.1f ms)", elapsed / 1e6);
+                    } finally {
+                        cpu.release();
+                    }
+                    res = check_expected(fname, res, failed);
+                } catch (SolveException e) {
+                    failed.increment();
+                    res = String.format("error: %s", e.getMessage());
+                } catch (Exception | Error e) { // including running out of memory or stack on a large program
+                    failed.increment();
+                    res = String.format("error: %s", e);
+                }
+                System.out.println(String.format("%s: %s", fname, res));
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double secs = (System.nanoTime() - start) / 1e9;
+        int solved = fnames.size() - failed.intValue();
+        System.out.println(String.format("Batch: %d programs (%d failed) in %.3f s, %.1f programs/s, %.1f ms per program, %s threads, %d solving at most",
+            fnames.size(), failed.intValue(), secs, fnames.size() / secs, solved == 0 ? 0.0 : solve_nanos.sum() / 1e6 / solved,
+            is_virtual ? "virtual" : "platform", threads));
+        return failed.intValue();
+    }
+
+    // Compare the answers in a batch result line with the expected ones (if the program has them)
+    String check_expected(String fname, String res, LongAdder failed) throws IOException {
+        File f = new File(fname + EXPECTED_SUFFIX);
+        if (!f.isFile()) {
+            return res;
+        }
+        String expected = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).trim();
+        if (res.startsWith(expected + ",") || res.startsWith(expected + " ")) {
+            return res + ", as expected";
+        }
+        failed.increment();
+        return res + String.format(", EXPECTED %s", expected);
+    }
+
+    // Solve a program given as text and return a line with the answers (and the verification results if enabled)
+    String solve_text(byte[] text, String fname) throws SolveException {
+        load_program(text, fname);
+        Answer res = find_answer();
+        String line = String.format("part 1 %s, part 2 %s", res.max == null ? "none" : res.max, res.min == null ? "none" : res.min);
+        if (verify) {
+            Alu alu = new Alu(instructions);
+            boolean ok = (res.max == null || alu.validate(res.max)) && (res.min == null || alu.validate(res.min));
+            line += ok ? ", verified" : ", verification FAILED";
+        }
+        return line;
+    }
+
+    // ****************************************************************************************************************
+    // Synthetic programs: a seeded generator of programs with the structure of the puzzle inputs (see BlockAnalyzer),
+    // with any (even) number of blocks. Push blocks ("div z 1") can't match their check; each pop block ("div z 26")
+    // is paired with the push block whose value it removes from the stack, and the two digits of a pair must differ by
+    // the sum of the push offset and the pop check. That makes the expected answers easy to compute independently of
+    // all the engines. A share of the blocks can be rewritten in forms that are equivalent but don't match the template
+    // (no-ops, reordered additions, "sub y y" instead of "mul y 0"), which exercises the generic code paths.
+
+    class ProgramGenerator {
+        public int blocks;                              // number of blocks (and of input digits)
+        public long seed;                               // seed of the random generator
+        public double push;                             // probability of a push when both a push and a pop are possible
+        public int depth;                               // maximum depth of the stack kept in "z"
+        public int offset;                              // the offsets of the push blocks are in [0, offset]
+        public int diff;                                // the differences between the digits of a pair are in [-diff, diff]
+        public double noise;                            // share of the blocks that don't match the template
+        public String max, min;                         // the expected answers (null if there is no valid input)
+        private Random rnd;
+
+        public ProgramGenerator() {
+            blocks = 14;
+            seed = 1;
+            push = 0.5;
+            depth = 7;
+            offset = 16;
+            diff = 8;
+            noise = 0;
+        }
+
+        // Set the parameters from a "name=value,..." list
+        public void configure(String spec) {
+            for (String kv: spec.split(",")) {
+                if (kv.isEmpty()) {
+                    continue;
+                }
+                String[] parts = kv.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException(String.format("invalid generator parameter '%s'", kv));
+                }
+                switch (parts[0]) {
+                    case "blocks": blocks = Integer.parseInt(parts[1]); break;
+                    case "seed": seed = Long.parseLong(parts[1]); break;
+                    case "push": push = Double.parseDouble(parts[1]); break;
+                    case "depth": depth = Integer.parseInt(parts[1]); break;
+                    case "offset": offset = Integer.parseInt(parts[1]); break;
+                    case "diff": diff = Integer.parseInt(parts[1]); break;
+                    case "noise": noise = Double.parseDouble(parts[1]); break;
+                    default: throw new IllegalArgumentException(String.format("unknown generator parameter '%s'", parts[0]));
+                }
+            }
+            if (blocks < 2 || blocks % 2 != 0) {
+                throw new IllegalArgumentException("the number of blocks must be even and at least 2");
+            }
+            // 26 ^ 13 still fits in a long (with room for the "mul z 26" of a push on top of it)
+            if (depth < 1 || depth > 12) {
+                throw new IllegalArgumentException("the stack depth must be between 1 and 12");
+            }
+            // A pushed value (digit + offset) must be a single base 26 digit
+            if (offset < 0 || offset > 16) {
+                throw new IllegalArgumentException("the offset must be between 0 and 16");
+            }
+            if (diff < 0 || diff > 25) {
+                throw new IllegalArgumentException("the difference must be between 0 and 25");
+            }
+        }
+
+        // Return the lines of a block with the given constants
+        private ArrayList<String> block(int a, int b, int c) {
+            return new ArrayList<>(Arrays.asList("inp w", "mul x 0", "add x z", "mod x 26", "div z " + a, "add x " + b,
+                "eql x w", "eql x 0", "mul y 0", "add y 25", "mul y x", "add y 1", "mul z y", "mul y 0", "add y w",
+                "add y " + c, "mul y x", "add z y"));
+        }
+
+        // Rewrite a block in an equivalent form that doesn't match the template (at least one rewrite is applied)
+        private void rewrite(ArrayList<String> lines) {
+            int kind = rnd.nextInt(3);
+            if (kind == 0 || rnd.nextBoolean()) {
+                // Swap "add y w" and "add y C"
+                Collections.swap(lines, 14, 15);
+            }
+            if (kind == 1 || rnd.nextBoolean()) {
+                lines.set(8, "sub y y");
+            }
+            if (kind == 2 || rnd.nextBoolean()) {
+                String[] nops = {"add y 0", "mul w 1", "div x 1", "add z 0", "mul x 1"};
+                lines.add(1 + rnd.nextInt(lines.size() - 1), nops[rnd.nextInt(nops.length)]);
+            }
+        }
+
+        // Generate the program and compute its expected answers
+        public String generate() {
+            rnd = new Random(seed);
+            StringBuilder sb = new StringBuilder();
+            char[] hi = new char[blocks], lo = new char[blocks];
+            ArrayDeque<int[]> stack = new ArrayDeque<>();   // (block, offset) of the pushed values
+            boolean solvable = true;
+            for (int b = 0; b < blocks; b ++) {
+                boolean can_push = stack.size() < depth && stack.size() + 1 <= blocks - b - 1;
+                boolean can_pop = !stack.isEmpty();
+                ArrayList<String> lines;
+                int c = rnd.nextInt(offset + 1);
+                if (can_push && (!can_pop || rnd.nextDouble() < push)) {
+                    lines = block(1, 10 + rnd.nextInt(7), c);
+                    stack.push(new int[] {b, c});
+                } else {
+                    int[] pushed = stack.pop();
+                    int d = rnd.nextInt(2 * diff + 1) - diff;
+                    lines = block(26, d - pushed[1], c);
+                    // digit[b] = digit[pushed] + d
+                    if (Math.abs(d) > 8) {
+                        solvable = false;
+                    } else {
+                        hi[pushed[0]] = (char)('0' + Math.min(9, 9 - d));
+                        hi[b] = (char)(hi[pushed[0]] + d);
+                        lo[pushed[0]] = (char)('0' + Math.max(1, 1 - d));
+                        lo[b] = (char)(lo[pushed[0]] + d);
+                    }
+                }
+                if (rnd.nextDouble() < noise) {
+                    rewrite(lines);
+                }
+                for (String l: lines) {
+                    sb.append(l).append('\n');
+                }
+            }
+            max = solvable ? new String(hi) : null;
+            min = solvable ? new String(lo) : null;
+            return sb.toString();
+        }
+    }
+
+    // Generate a program with the given "<file>[,name=value...]" spec and write it to <file>, with its expected
+    // answers (in the format of the batch mode) in <file>.expected
+    void generate_program(String spec) throws IOException {
+        int comma = spec.indexOf(',');
+        String fname = comma == -1 ? spec : spec.substring(0, comma);
+        ProgramGenerator g = new ProgramGenerator();
+        g.configure(comma == -1 ? "" : spec.substring(comma + 1));
+        String text = g.generate();
+        String expected = String.format("part 1 %s, part 2 %s", g.max == null ? "none" : g.max, g.min == null ? "none" : g.min);
+        Files.write(Paths.get(fname), text.getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(fname + EXPECTED_SUFFIX), (expected + "\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println(String.format("Generated %s: %d blocks, %d instructions, seed %d, expected answers in %s%s",
+            fname, g.blocks, text.split("\n").length, g.seed, fname, EXPECTED_SUFFIX));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Solution s = new Solution();
+        int bench_alu = 0;
+        String fname = "input.txt";
+        String batch = null, generate = null;
+        for (String arg: args) {
+            if (arg.equals("--stats")) {
+                s.print_stats = true;
+            } else if (arg.startsWith("--input=")) {
+                fname = arg.substring(8);
+            } else if (arg.startsWith("--cache=")) {
+                s.cache_dir = arg.substring(8);
+            } else if (arg.startsWith("--generate=")) {
+                generate = arg.substring(11);
+            } else if (arg.startsWith("--batch=")) {
+                batch = arg.substring(8);
+            } else if (arg.startsWith("--dp-memory=")) {
+                s.dp_memory = Long.parseLong(arg.substring(12)) << 20;
+            } else if (arg.startsWith("--engine=")) {
+                s.engine = Engine.valueOf(arg.substring(9).toUpperCase());
+            } else if (arg.equals("--verify")) {
+                s.verify = true;
+            } else if (arg.equals("--count")) {
+                s.print_count = true;
+            } else if (arg.equals("--list=asc") || arg.equals("--list=desc")) {
+                s.list_order = arg.substring(7);
+            } else if (arg.startsWith("--limit=")) {
+                s.list_limit = Long.parseLong(arg.substring(8));
+            } else if (arg.startsWith("--optimize=")) {
+                s.passes = EnumSet.noneOf(Pass.class);
+                for (String p: arg.substring(11).split(",")) {
+                    if (p.equals("all")) {
+                        s.passes = EnumSet.allOf(Pass.class);
+                    } else if (!p.equals("none")) {
+                        s.passes.add(Pass.valueOf(p.toUpperCase()));
+                    }
+                }
+            } else if (arg.equals("--bench-alu")) {
+                bench_alu = 1000000;
+            } else if (arg.startsWith("--bench-alu=")) {
+                bench_alu = Integer.parseInt(arg.substring(12));
+            } else if (arg.startsWith("--eval=")) {
+                s.eval_mode = EvalMode.valueOf(arg.substring(7).toUpperCase());
+            } else if (arg.startsWith("--search=")) {
+                s.search_mode = SearchMode.valueOf(arg.substring(9).toUpperCase());
+            } else if (arg.startsWith("--threads=")) {
+                s.threads = Integer.parseInt(arg.substring(10));
+            } else if (arg.equals("--interpret=parallel") || arg.equals("--interpret=serial")) {
+                s.parallel_interpret = arg.endsWith("parallel");
+            } else if (arg.startsWith("--split-depth=")) {
+                s.split_depth = Integer.parseInt(arg.substring(14));
+            } else {
+                System.err.println(String.format("Unknown argument '%s'", arg));
+                System.exit(1);
+            }
+        }
+        if (generate != null) {
+            s.generate_program(generate);
+        } else if (bench_alu > 0) {
+            s.bench_alu(fname, bench_alu);
+        } else if (batch != null) {
+            if (s.solve_batch(batch) > 0) {
+                System.exit(1);
+            }
+        } else {
+            try {
+                s.solve(fname);
+            } catch (SolveException e) {
+                System.err.println(String.format("Unable to solve %s: %s", fname, e.getMessage()));
+                System.exit(1);
+            }
+        }
     }
 }
@@ -0,0 +1,212 @@
+package day24.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// Access to the internals of Solution. Solution is in the default package (so that it can be run directly with
+// "java Solution.java") and JMH benchmarks can't be, so everything goes through method handles. The handles are
+// adapted to Object types and kept in static final fields, so the JIT can inline the calls.
+final class Day24Access {
+    private static final MethodHandle NEW_SOLUTION;
+    private static final MethodHandle READ_INPUT;
+    private static final MethodHandle INTERPRET_PROGRAM;
+    private static final MethodHandle FIND_ANSWER;
+    private static final MethodHandle RESET_LIMITS;
+    private static final MethodHandle ALL_RESULTS;
+    private static final MethodHandle RESULT_CONDITIONS;
+    private static final MethodHandle GET_LIMITS;
+    private static final MethodHandle EVAL_WITH_DIGITS;
+    private static final MethodHandle CHECK_DIGIT_CONDITION;
+    private static final MethodHandle SET_ENGINE;
+    private static final MethodHandle SET_EVAL_MODE;
+    private static final MethodHandle SEARCH_AGAIN;
+    private static final MethodHandle GENERATE_PROGRAM;
+    private static final MethodHandle UNREDUCED_Z;
+    private static final Class<?> ENGINE;
+    private static final Class<?> EVAL_MODE;
+
+    static {
+        try {
+            Class<?> solution = Class.forName("Solution");
+            Class<?> result = Class.forName("Solution$Result");
+            Class<?> expression = Class.forName("Solution$Expression");
+            Class<?> limits = Class.forName("Solution$Limits");
+            Class<?> answer = Class.forName("Solution$Answer");
+            Class<?> digit_value = Class.forName("Solution$DigitValue");
+            ENGINE = Class.forName("Solution$Engine");
+            EVAL_MODE = Class.forName("Solution$EvalMode");
+            MethodHandles.Lookup l = MethodHandles.privateLookupIn(solution, MethodHandles.lookup());
+            NEW_SOLUTION = l.findConstructor(solution, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+            READ_INPUT = l.findVirtual(solution, "read_input", MethodType.methodType(void.class, String.class))
+                .asType(MethodType.methodType(void.class, Object.class, String.class));
+            INTERPRET_PROGRAM = l.findVirtual(solution, "interpret_program", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+            FIND_ANSWER = l.findVirtual(solution, "find_answer", MethodType.methodType(answer))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            RESET_LIMITS = l.findVirtual(solution, "reset_limits", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+            ALL_RESULTS = l.unreflectGetter(solution.getDeclaredField("all_results"))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            RESULT_CONDITIONS = l.unreflectGetter(result.getDeclaredField("conditions"))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            GET_LIMITS = l.findVirtual(expression, "get_limits", MethodType.methodType(limits))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            EVAL_WITH_DIGITS = l.findVirtual(expression, "eval_with_digits", MethodType.methodType(long.class, int[].class))
+                .asType(MethodType.methodType(long.class, Object.class, int[].class));
+            CHECK_DIGIT_CONDITION = l.findVirtual(expression, "check_digit_condition", MethodType.methodType(digit_value, int[].class))
+                .asType(MethodType.methodType(Object.class, Object.class, int[].class));
+            SET_ENGINE = l.unreflectSetter(solution.getDeclaredField("engine"))
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            SET_EVAL_MODE = l.unreflectSetter(solution.getDeclaredField("eval_mode"))
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            SEARCH_AGAIN = l.findVirtual(solution, "search_again", MethodType.methodType(long[].class))
+                .asType(MethodType.methodType(long[].class, Object.class));
+            GENERATE_PROGRAM = l.findVirtual(solution, "generate_program", MethodType.methodType(void.class, String.class))
+                .asType(MethodType.methodType(void.class, Object.class, String.class));
+            UNREDUCED_Z = l.findVirtual(solution, "unreduced_z", MethodType.methodType(expression))
+                .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Day24Access() {
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        }
+        return new RuntimeException(t);
+    }
+
+    static Object newSolution() {
+        try {
+            return (Object)NEW_SOLUTION.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void readInput(Object solution, String fname) {
+        try {
+            READ_INPUT.invokeExact(solution, fname);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void interpretProgram(Object solution) {
+        try {
+            INTERPRET_PROGRAM.invokeExact(solution);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object findAnswer(Object solution) {
+        try {
+            return (Object)FIND_ANSWER.invokeExact(solution);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void resetLimits(Object solution) {
+        try {
+            RESET_LIMITS.invokeExact(solution);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void setEngine(Object solution, String engine) {
+        try {
+            SET_ENGINE.invokeExact(solution, (Object)Enum.valueOf((Class)ENGINE, engine));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void setEvalMode(Object solution, String mode) {
+        try {
+            SET_EVAL_MODE.invokeExact(solution, (Object)Enum.valueOf((Class)EVAL_MODE, mode));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long[] searchAgain(Object solution) {
+        try {
+            return (long[])SEARCH_AGAIN.invokeExact(solution);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Write a synthetic program (and its expected answers) as described by "<file>[,name=value...]"
+    static void generateProgram(Object solution, String spec) {
+        try {
+            GENERATE_PROGRAM.invokeExact(solution, spec);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // The first (and only) result of the symbolic interpreter
+    static Object firstResult(Object solution) {
+        try {
+            return ((java.util.Queue<?>)(Object)ALL_RESULTS.invokeExact(solution)).peek();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // The value of "z" at the end of the path where no comparison succeeds, which doesn't reduce to a constant
+    static Object unreducedZ(Object solution) {
+        try {
+            return (Object)UNREDUCED_Z.invokeExact(solution);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> resultConditions(Object result) {
+        try {
+            return (List<?>)(Object)RESULT_CONDITIONS.invokeExact(result);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object getLimits(Object expression) {
+        try {
+            return (Object)GET_LIMITS.invokeExact(expression);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long evalWithDigits(Object expression, int[] digits) {
+        try {
+            return (long)EVAL_WITH_DIGITS.invokeExact(expression, digits);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object checkDigitCondition(Object condition, int[] digits) {
+        try {
+            return (Object)CHECK_DIGIT_CONDITION.invokeExact(condition, digits);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
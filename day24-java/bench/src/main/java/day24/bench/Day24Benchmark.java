@@ -0,0 +1,182 @@
+package day24.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Benchmarks for the phases of the day 24 solution: parsing, symbolic interpretation, limits analysis, evaluation of
+// the reduced conditions, the search of all the inputs with each evaluator, the full solve with each engine and the
+// block engine on synthetic programs of increasing size. The input file is given with -Dday24.input=<file> (default:
+// ../input.txt, relative to the bench directory).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Day24Benchmark {
+    static final String INPUT = System.getProperty("day24.input", "../input.txt");
+
+    // The answer for part 1 of the default input, used as the digits for the evaluation benchmarks
+    static final int[] DIGITS = {9, 9, 8, 9, 3, 9, 9, 9, 2, 9, 1, 9, 6, 7};
+
+    // A freshly parsed program (the interpreter accumulates results, so this is rebuilt for each call)
+    @State(Scope.Thread)
+    public static class ParsedProgram {
+        Object solution;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            solution = Day24Access.newSolution();
+            Day24Access.readInput(solution, INPUT);
+        }
+    }
+
+    // An interpreted program together with the expressions used by the evaluation benchmarks. The final "z" of the
+    // result is simplified to the constant 0, so the limits and evaluation benchmarks use the "z" of the path where no
+    // digit check succeeds instead, which keeps an expression for each block.
+    @State(Scope.Thread)
+    public static class InterpretedProgram {
+        Object solution;
+        Object z;
+        List<Object> conditions;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            solution = Day24Access.newSolution();
+            Day24Access.readInput(solution, INPUT);
+            Day24Access.interpretProgram(solution);
+            Object result = Day24Access.firstResult(solution);
+            z = Day24Access.unreducedZ(solution);
+            conditions = new ArrayList<>(Day24Access.resultConditions(result));
+        }
+    }
+
+    // Same as above, but the limits cache is cleared before each call
+    @State(Scope.Thread)
+    public static class ColdLimits extends InterpretedProgram {
+        @Setup(Level.Invocation)
+        public void clear() {
+            Day24Access.resetLimits(solution);
+        }
+    }
+
+    // A parsed program for the full solve with the given engine
+    @State(Scope.Thread)
+    public static class EngineProgram {
+        @Param({"SYMBOLIC", "BLOCKS", "DP"})
+        String engine;
+
+        Object solution;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            solution = Day24Access.newSolution();
+            Day24Access.setEngine(solution, engine);
+            Day24Access.readInput(solution, INPUT);
+        }
+    }
+
+    // A solved program, ready to search all its inputs again with the given evaluator
+    @State(Scope.Thread)
+    public static class SolvedProgram {
+        @Param({"TREE", "COMPILED", "POOL", "INCREMENTAL", "LANES"})
+        String eval;
+
+        Object solution;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            solution = Day24Access.newSolution();
+            Day24Access.setEvalMode(solution, eval);
+            Day24Access.readInput(solution, INPUT);
+            Day24Access.findAnswer(solution);
+        }
+    }
+
+    // A synthetic program with the given number of blocks, parsed for the full solve with the block engine (the other
+    // engines only handle programs of about the size of the puzzle input)
+    @State(Scope.Thread)
+    public static class GeneratedProgram {
+        @Param({"14", "140", "1400"})
+        int blocks;
+
+        File file;
+        Object solution;
+
+        @Setup(Level.Trial)
+        public void generate() throws IOException {
+            file = File.createTempFile("day24-", ".txt");
+            file.deleteOnExit();
+            new File(file.getPath() + ".expected").deleteOnExit();
+            Day24Access.generateProgram(Day24Access.newSolution(), String.format("%s,blocks=%d,seed=%d", file.getPath(), blocks, blocks));
+        }
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            solution = Day24Access.newSolution();
+            Day24Access.setEngine(solution, "BLOCKS");
+            Day24Access.readInput(solution, file.getPath());
+        }
+    }
+
+    @Benchmark
+    public Object readInput() {
+        Object solution = Day24Access.newSolution();
+        Day24Access.readInput(solution, INPUT);
+        return solution;
+    }
+
+    @Benchmark
+    public Object interpret(ParsedProgram p) {
+        Day24Access.interpretProgram(p.solution);
+        return Day24Access.firstResult(p.solution);
+    }
+
+    @Benchmark
+    public Object getLimits(ColdLimits p) {
+        return Day24Access.getLimits(p.z);
+    }
+
+    @Benchmark
+    public long evalWithDigits(InterpretedProgram p) {
+        return Day24Access.evalWithDigits(p.z, DIGITS);
+    }
+
+    @Benchmark
+    public void checkDigitCondition(InterpretedProgram p, Blackhole bh) {
+        for (Object c: p.conditions) {
+            bh.consume(Day24Access.checkDigitCondition(c, DIGITS));
+        }
+    }
+
+    @Benchmark
+    public long[] search(SolvedProgram p) {
+        return Day24Access.searchAgain(p.solution);
+    }
+
+    @Benchmark
+    public Object solve(EngineProgram p) {
+        return Day24Access.findAnswer(p.solution);
+    }
+
+    @Benchmark
+    public Object solveGenerated(GeneratedProgram p) {
+        return Day24Access.findAnswer(p.solution);
+    }
+}